@@ -0,0 +1,70 @@
+package drawshapes;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the bounding box overlap test that the spatial index and
+ * every hit-test start with.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoundingBoxBenchmark {
+
+    private static final int PAIRS = 4096;
+
+    // how often the pairs overlap, since that decides how far the test gets
+    @Param({ "0.1", "0.5", "0.9" })
+    public double overlapRatio;
+
+    private BoundingBox[] first;
+    private BoundingBox[] second;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        first = new BoundingBox[PAIRS];
+        second = new BoundingBox[PAIRS];
+        for (int i = 0; i < PAIRS; i++) {
+            int left = random.nextInt(1000);
+            int top = random.nextInt(1000);
+            first[i] = new BoundingBox(left, left + 50, top, top + 50);
+            if (random.nextDouble() < overlapRatio) {
+                int dx = random.nextInt(80) - 40;
+                int dy = random.nextInt(80) - 40;
+                second[i] = new BoundingBox(left + dx, left + dx + 50, top + dy, top + dy + 50);
+            } else {
+                second[i] = new BoundingBox(left + 200, left + 250, top + 200, top + 250);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public int intersects() {
+        int hits = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            if (first[i].intersects(second[i])) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,167 @@
+package drawshapes;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the Scene operations the program runs on every click,
+ * drag and repaint.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Djava.awt.headless=true" })
+public class SceneBenchmark {
+
+    private static final long SEED = 42;
+    // how many query points and rectangles to cycle through
+    private static final int QUERIES = 1024;
+    // the size of the off-screen image, like a full HD window
+    private static final int VIEW_WIDTH = 1920;
+    private static final int VIEW_HEIGHT = 1080;
+
+    @Param({ "1000", "100000", "1000000" })
+    public int size;
+
+    @Param({ "MIXED", "SQUARES", "CIRCLES", "ROTATED" })
+    public SceneGenerator.Mix mix;
+
+    @Param({ "0.0", "0.01", "0.5" })
+    public double selectedRatio;
+
+    private Scene scene;
+    private IShape[] shapes;
+    private Point[] points;
+    private SelectionRectangle[] rectangles;
+    private int next;
+    private BufferedImage image;
+    private Graphics2D graphics;
+    private TiledRenderer renderer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        scene = SceneGenerator.generate(SEED, size, mix, selectedRatio);
+        scene.publish();
+        shapes = new IShape[size];
+        int i = 0;
+        for (IShape s : scene) {
+            shapes[i++] = s;
+        }
+        int canvas = SceneGenerator.canvasSize(size);
+        Random random = new Random(SEED + 1);
+        points = new Point[QUERIES];
+        rectangles = new SelectionRectangle[QUERIES];
+        for (i = 0; i < QUERIES; i++) {
+            points[i] = new Point(random.nextInt(canvas), random.nextInt(canvas));
+            int left = random.nextInt(canvas);
+            int top = random.nextInt(canvas);
+            // about the size of a rubber band drag
+            rectangles[i] = new SelectionRectangle(left, left + 50 + random.nextInt(300),
+                    top, top + 50 + random.nextInt(300));
+        }
+        image = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        graphics = image.createGraphics();
+        graphics.setClip(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+        renderer = new TiledRenderer();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    private int nextQuery() {
+        next = (next + 1) & (QUERIES - 1);
+        return next;
+    }
+
+    /**
+     * Hit-test a click.
+     */
+    @Benchmark
+    public List<IShape> selectPoint() {
+        return scene.select(points[nextQuery()]);
+    }
+
+    /**
+     * Find the shapes under a selection rectangle.
+     */
+    @Benchmark
+    public List<IShape> selectRectangle() {
+        return scene.select(rectangles[nextQuery()]);
+    }
+
+    /**
+     * Deep-copy the scene.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Scene cloneScene() throws CloneNotSupportedException {
+        return scene.clone();
+    }
+
+    /**
+     * Take a snapshot after moving one shape, as happens after every edit.
+     */
+    @Benchmark
+    public SceneSnapshot publishAfterEdit() {
+        IShape shape = shapes[nextQuery() % shapes.length];
+        shape.setAnchorPoint(new Point(shape.getAnchorPoint().x ^ 1, shape.getAnchorPoint().y));
+        return scene.publish();
+    }
+
+    /**
+     * Repaint a full window's worth of the scene into an off-screen image.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public BufferedImage drawView() {
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+        scene.draw(graphics);
+        return image;
+    }
+
+    /**
+     * Repaint the layer of unselected shapes, which the panel caches.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public BufferedImage drawUnselected() {
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+        scene.drawUnselected(graphics);
+        return image;
+    }
+
+    /**
+     * Render the same window's worth of the last snapshot in parallel
+     * tiles, as exporting an image does.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public BufferedImage renderTiled() {
+        return renderer.render(scene.snapshot(), 0, 0, VIEW_WIDTH, VIEW_HEIGHT, 1.0, Color.WHITE);
+    }
+}
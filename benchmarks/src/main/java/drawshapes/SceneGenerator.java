@@ -0,0 +1,101 @@
+package drawshapes;
+
+import java.awt.Color;
+import java.awt.Point;
+import java.util.Random;
+
+/**
+ * Makes synthetic scenes for the benchmarks. The same seed always gives
+ * the same scene.
+ *
+ * Shapes are spread over a square canvas that grows with the number of
+ * shapes, so the average number of shapes under a point stays about the
+ * same whatever the scene size.
+ */
+public class SceneGenerator {
+
+    /**
+     * Which shapes to make.
+     */
+    public enum Mix {
+        SQUARES, CIRCLES, RECTANGLES, MIXED, ROTATED
+    }
+
+    private static final Color[] COLORS = {
+        Color.RED, Color.BLUE, Color.GREEN, Color.YELLOW, Color.BLACK
+    };
+    private static final int MIN_SIZE = 10;
+    private static final int MAX_SIZE = 80;
+    // canvas area per shape, in square pixels
+    private static final int AREA_PER_SHAPE = 60 * 60;
+
+    private SceneGenerator() {
+    }
+
+    /**
+     * Return the width and height of the canvas a scene of the given size
+     * is spread over.
+     */
+    public static int canvasSize(int shapes) {
+        return (int) Math.ceil(Math.sqrt((double) shapes * AREA_PER_SHAPE));
+    }
+
+    /**
+     * Make a scene.
+     *
+     * @param seed
+     * @param shapes how many shapes
+     * @param mix which kinds of shapes
+     * @param selectedRatio the fraction of the shapes that are selected
+     * @return
+     */
+    public static Scene generate(long seed, int shapes, Mix mix, double selectedRatio) {
+        Random random = new Random(seed);
+        int canvas = canvasSize(shapes);
+        Scene scene = new Scene();
+        for (int i = 0; i < shapes; i++) {
+            IShape shape = makeShape(random, canvas, mix);
+            shape.setSelected(random.nextDouble() < selectedRatio);
+            scene.addShape(shape);
+        }
+        return scene;
+    }
+
+    private static IShape makeShape(Random random, int canvas, Mix mix) {
+        Point center = new Point(random.nextInt(canvas), random.nextInt(canvas));
+        Color color = COLORS[random.nextInt(COLORS.length)];
+        int width = MIN_SIZE + random.nextInt(MAX_SIZE - MIN_SIZE);
+        int height = MIN_SIZE + random.nextInt(MAX_SIZE - MIN_SIZE);
+        switch (pick(random, mix)) {
+        case SQUARES:
+            return new Square(color, center.x, center.y, width);
+        case CIRCLES:
+            return new Circle(color, center, width);
+        case ROTATED:
+            Rectangle rotated = new Rectangle(center, width, height, color);
+            rotated.rotate(random.nextInt(360));
+            return rotated;
+        default:
+            return new Rectangle(center, width, height, color);
+        }
+    }
+
+    /**
+     * Pick the kind of the next shape. MIXED is an even mix of the other
+     * kinds, with a quarter of the rectangles rotated.
+     */
+    private static Mix pick(Random random, Mix mix) {
+        if (mix != Mix.MIXED) {
+            return mix;
+        }
+        int kind = random.nextInt(12);
+        if (kind < 4) {
+            return Mix.SQUARES;
+        } else if (kind < 8) {
+            return Mix.CIRCLES;
+        } else if (kind < 11) {
+            return Mix.RECTANGLES;
+        }
+        return Mix.ROTATED;
+    }
+}
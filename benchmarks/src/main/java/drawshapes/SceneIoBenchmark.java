@@ -0,0 +1,101 @@
+package drawshapes;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of saving and loading scenes in the text and binary formats.
+ * The files go in a temporary directory, so the numbers include the file
+ * system but mostly measure the parsing and formatting.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SceneIoBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    public int size;
+
+    @Param({ "MIXED", "ROTATED" })
+    public SceneGenerator.Mix mix;
+
+    @Param({ ".txt", SceneFiles.BINARY_EXTENSION })
+    public String extension;
+
+    private Path directory;
+    private Path saved;
+    private Path target;
+    private SceneSnapshot snapshot;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Scene scene = SceneGenerator.generate(42, size, mix, 0.01);
+        snapshot = scene.publish();
+        directory = Files.createTempDirectory("drawshapes-bench");
+        saved = directory.resolve("scene" + extension);
+        target = directory.resolve("copy" + extension);
+        SceneFiles.save(snapshot, saved);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(saved);
+        Files.deleteIfExists(target);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public Path save() throws IOException {
+        SceneFiles.save(snapshot, target);
+        return target;
+    }
+
+    /**
+     * Read every shape, the way the load worker does.
+     */
+    @Benchmark
+    public int load() throws IOException {
+        int count = 0;
+        try (IShapeReader reader = SceneFiles.open(saved)) {
+            while (reader.readShape() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Read every shape into a new scene, which also builds its spatial
+     * index.
+     */
+    @Benchmark
+    public Scene loadScene() throws IOException {
+        Scene scene = new Scene();
+        try (IShapeReader reader = SceneFiles.open(saved)) {
+            IShape shape;
+            while ((shape = reader.readShape()) != null) {
+                scene.addShape(shape);
+            }
+        }
+        return scene;
+    }
+}
@@ -2,6 +2,7 @@ package drawshapes;
 
 import java.awt.Color;
 import java.awt.Point;
+import java.util.Objects;
 
 /**
  * Abstract shape class.
@@ -18,13 +19,76 @@ public abstract class AbstractShape implements IShape
     protected boolean selected;
     protected Color color;
     protected Point anchorPoint;
+    protected IShapeListener listener;
+    // scratch copy of the old bounds, handed to the listener on a change
+    private BoundingBox previousBounds;
+    // the content hash the listener last heard about
+    private long notifiedHash;
+    // color.darker(), worked out once per color instead of once per frame
+    private Color darkerColor;
     
     protected AbstractShape(Point anchor) {
         this.anchorPoint = anchor;
     }
     
     protected void setBoundingBox(int left, int right, int top, int bottom) {
-        this.boundingBox = new BoundingBox(left, right, top, bottom);
+        if (boundingBox == null) {
+            boundingBox = new BoundingBox(left, right, top, bottom);
+        } else if (boundingBox.getLeft() != left || boundingBox.getRight() != right
+                || boundingBox.getTop() != top || boundingBox.getBottom() != bottom) {
+            if (listener == null) {
+                boundingBox.set(left, right, top, bottom);
+            } else {
+                if (previousBounds == null) {
+                    previousBounds = new BoundingBox(boundingBox);
+                } else {
+                    previousBounds.set(boundingBox);
+                }
+                boundingBox.set(left, right, top, bottom);
+                listener.boundsChanged(this, previousBounds);
+            }
+        }
+        // the shape may have changed even if its bounds didn't, such as a
+        // square turned a quarter turn
+        fireContentChanged();
+    }
+
+    /**
+     * Tell the listener if the content hash changed. Every change to the
+     * shape ends up here.
+     */
+    protected void fireContentChanged() {
+        if (listener == null) {
+            return;
+        }
+        long hash = contentHash();
+        if (hash != notifiedHash) {
+            long oldHash = notifiedHash;
+            notifiedHash = hash;
+            listener.contentChanged(this, oldHash);
+        }
+    }
+
+    /**
+     * Start a content hash with what every shape has: its type, anchor
+     * point, color and selected status.
+     * 
+     * @return
+     */
+    protected long baseContentHash() {
+        long hash = getClass().getName().hashCode();
+        hash = mixHash(hash, anchorPoint.x);
+        hash = mixHash(hash, anchorPoint.y);
+        hash = mixHash(hash, color == null ? 0 : color.getRGB());
+        return mixHash(hash, selected ? 1 : 0);
+    }
+
+    /**
+     * Mix one more value into a content hash.
+     */
+    protected static long mixHash(long hash, long value) {
+        hash ^= value * 0x9E3779B97F4A7C15L;
+        return Long.rotateLeft(hash, 27) * 0xFF51AFD7ED558CCDL;
     }
 
     /* (non-Javadoc)
@@ -35,7 +99,12 @@ public abstract class AbstractShape implements IShape
         if (this == other || other == null){
             return false;
         }
-        return this.boundingBox.intersects(other.getBoundingBox());
+        // broad phase: cheap rejection on the bounding boxes
+        if (!this.boundingBox.intersects(other.getBoundingBox())) {
+            return false;
+        }
+        // narrow phase: the exact shapes
+        return intersectsExactly(other);
     }
 
     /* (non-Javadoc)
@@ -43,7 +112,30 @@ public abstract class AbstractShape implements IShape
      */
     @Override
     public boolean contains(Point point) {
-        return this.boundingBox.contains(point);
+        return this.boundingBox.contains(point) && containsExactly(point.x, point.y);
+    }
+
+    /**
+     * Exact intersection test, only called once the bounding boxes are
+     * known to overlap. By default the bounding box is the shape.
+     * 
+     * @param other
+     * @return
+     */
+    protected boolean intersectsExactly(IShape other) {
+        return true;
+    }
+
+    /**
+     * Exact containment test, only called once the bounding box is known
+     * to contain the point. By default the bounding box is the shape.
+     * 
+     * @param x
+     * @param y
+     * @return
+     */
+    protected boolean containsExactly(double x, double y) {
+        return true;
     }
 
     /* (non-Javadoc)
@@ -67,7 +159,29 @@ public abstract class AbstractShape implements IShape
      */
     @Override
     public void setColor(Color color) {
+        if (Objects.equals(color, this.color)) {
+            return;
+        }
         this.color = color;
+        this.darkerColor = null;
+        if (listener != null) {
+            listener.appearanceChanged(this);
+        }
+        fireContentChanged();
+    }
+
+    /**
+     * Return the color draw() paints the shape in: its own color, or a
+     * darker one while it is selected.
+     */
+    Color getDrawColor() {
+        if (!selected) {
+            return color;
+        }
+        if (darkerColor == null) {
+            darkerColor = color.darker();
+        }
+        return darkerColor;
     }
 
     /* (non-Javadoc)
@@ -83,13 +197,43 @@ public abstract class AbstractShape implements IShape
      */
     @Override
     public void setSelected(boolean b) {
+        if (b == this.selected) {
+            return;
+        }
         this.selected = b;
+        if (listener != null) {
+            listener.selectedChanged(this);
+        }
+        fireContentChanged();
     }
     
     @Override
     public Point getAnchorPoint() {
         return this.anchorPoint;
     }
+
+    /**
+     * Move the shape by the given offset. The anchor point is moved in
+     * place, so dragging a shape doesn't make a new Point on every mouse
+     * event.
+     */
+    public void translate(int dx, int dy) {
+        anchorPoint.translate(dx, dy);
+        setBoundingBox(
+                boundingBox.getLeft() + dx,
+                boundingBox.getRight() + dx,
+                boundingBox.getTop() + dy,
+                boundingBox.getBottom() + dy
+        );
+    }
+
+    @Override
+    public void setListener(IShapeListener listener) {
+        this.listener = listener;
+        if (listener != null) {
+            notifiedHash = contentHash();
+        }
+    }
     
     static String colorToString(Color color) {
         if (color == Color.RED) {
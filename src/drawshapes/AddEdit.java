@@ -0,0 +1,30 @@
+package drawshapes;
+
+import java.util.Collections;
+
+/**
+ * Adds one shape to the top of the scene.
+ */
+public class AddEdit implements Edit {
+
+    private final IShape shape;
+
+    public AddEdit(IShape shape) {
+        this.shape = shape;
+    }
+
+    @Override
+    public void redo(Scene scene) {
+        scene.addShape(shape);
+    }
+
+    @Override
+    public void undo(Scene scene) {
+        scene.removeShapes(Collections.singletonList(shape));
+    }
+
+    @Override
+    public long estimateBytes() {
+        return UndoHistory.OBJECT_BYTES + UndoHistory.REFERENCE_BYTES;
+    }
+}
@@ -0,0 +1,493 @@
+package drawshapes;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps a copy of the scene on disk, so unsaved work survives a crash.
+ *
+ * Every snapshot the scene publishes is appended to a journal as a short
+ * record of what changed. Every so often the whole scene is written as a
+ * checkpoint in the binary scene format and the journal starts over. After
+ * a crash, recover() loads the newest checkpoint and replays the journal on
+ * top of it. On a clean exit the files are deleted.
+ *
+ * All the writing happens on a background thread. The event thread only
+ * puts snapshots in a queue.
+ *
+ * The journal starts with the magic "DSHJ" and a short version, followed
+ * by records, all little-endian:
+ *
+ * <pre>
+ * length         int      bytes from the sequence to the end of the changes
+ * sequence       long     one more than the record before
+ * change count   int
+ * changes        kind byte, index int, and for SET and INSERT the ARGB
+ *                color int and a shape record as in BinarySceneFormat
+ * checksum       int      CRC32 of the sequence through the changes
+ * </pre>
+ *
+ * A checkpoint uses up a sequence number too, and is named after it. Only
+ * the records after the newest checkpoint are replayed.
+ */
+public class Autosave implements ISnapshotListener {
+
+    private static final byte[] MAGIC = { 'D', 'S', 'H', 'J' };
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 6;
+    private static final String JOURNAL_NAME = "autosave.journal";
+    private static final String CHECKPOINT_PREFIX = "autosave-";
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 30 * 1000;
+    private static final long MAX_JOURNAL_SIZE = 4 * 1024 * 1024;
+    private static final int SHAPE_CHANGE_SIZE = 1 + 4 + 4 + BinarySceneFormat.RECORD_SIZE;
+    private static final int REMOVE_CHANGE_SIZE = 1 + 4;
+
+    // queued by close() to stop the writer
+    private static final Pending STOP = new Pending(null, false);
+
+    private final Path directory;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<Pending>();
+    private volatile boolean closed;
+
+    // only used on the event thread
+    private Scene scene;
+    private Thread writer;
+
+    // only used by the writer, once it is started
+    private FileChannel journal;
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(BinarySceneFormat.ORDER);
+    private long sequence;
+    private long checkpointSequence;
+    private SceneSnapshot latest;
+    private long lastCheckpoint;
+    private boolean needsCheckpoint;
+
+    public Autosave(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Rebuild the scene that was being edited when the program last stopped
+     * without closing the autosave, or return null if there is none. Call
+     * this before attach(), since the first checkpoint replaces the files
+     * this reads.
+     *
+     * @return
+     * @throws IOException
+     */
+    public Scene recover() throws IOException {
+        List<Path> checkpoints = listCheckpoints();
+        if (checkpoints.isEmpty()) {
+            return null;
+        }
+        long newest = -1;
+        for (Path file : checkpoints) {
+            newest = Math.max(newest, checkpointSequence(file));
+        }
+        sequence = newest;
+
+        List<IShape> shapes = new ArrayList<IShape>();
+        try (IShapeReader reader = new BinarySceneReader(checkpointFile(newest))) {
+            IShape shape;
+            while ((shape = reader.readShape()) != null) {
+                shapes.add(shape);
+            }
+        }
+        replay(shapes);
+
+        Scene recovered = new Scene();
+        for (IShape s : shapes) {
+            recovered.addShape(s);
+        }
+        return recovered;
+    }
+
+    /**
+     * Start saving the given scene, in place of any scene saved before. The
+     * scene is checkpointed right away. Call this on the event thread.
+     *
+     * @param newScene
+     */
+    public void attach(Scene newScene) {
+        if (scene != null) {
+            scene.setSnapshotListener(null);
+        }
+        scene = newScene;
+        SceneSnapshot snapshot = scene.publish();
+        scene.setSnapshotListener(this);
+        queue.add(new Pending(snapshot, true));
+
+        if (writer == null) {
+            writer = new Thread(new Runnable() {
+                public void run() {
+                    writeLoop();
+                }
+            }, "autosave");
+            writer.setDaemon(true);
+            writer.start();
+            // give the writer a moment to clean up on a normal exit
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                public void run() {
+                    if (closed) {
+                        try {
+                            writer.join(5000);
+                        } catch (InterruptedException e) {
+                            // exiting anyway
+                        }
+                    }
+                }
+            }));
+        }
+    }
+
+    /**
+     * Stop saving, and delete the saved files in the background, since
+     * there is nothing to recover after a normal exit.
+     */
+    public void close() {
+        if (scene != null) {
+            scene.setSnapshotListener(null);
+        }
+        closed = true;
+        queue.add(STOP);
+    }
+
+    @Override
+    public void snapshotPublished(SceneSnapshot snapshot) {
+        queue.add(new Pending(snapshot, false));
+    }
+
+    private void writeLoop() {
+        lastCheckpoint = System.currentTimeMillis();
+        List<Pending> batch = new ArrayList<Pending>();
+        while (true) {
+            try {
+                long wait = lastCheckpoint + CHECKPOINT_INTERVAL_MILLIS - System.currentTimeMillis();
+                Pending first = queue.poll(Math.max(wait, 0), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                for (Pending p : batch) {
+                    if (p == STOP) {
+                        deleteFiles();
+                        return;
+                    }
+                    if (p.checkpoint || needsCheckpoint || p.snapshot.getChanges() == null) {
+                        checkpoint(p.snapshot);
+                    } else {
+                        append(p.snapshot);
+                    }
+                }
+                flushJournal();
+                if (System.currentTimeMillis() - lastCheckpoint >= CHECKPOINT_INTERVAL_MILLIS
+                        || (journal != null && journal.position() > MAX_JOURNAL_SIZE)) {
+                    if (latest != null && (needsCheckpoint || sequence != checkpointSequence)) {
+                        checkpoint(latest);
+                    } else {
+                        // nothing new since the last one
+                        lastCheckpoint = System.currentTimeMillis();
+                    }
+                }
+            } catch (IOException e) {
+                EventLog.error("Autosave failed: %s", e);
+                // the journal may end in a partial record now
+                buffer.clear();
+                needsCheckpoint = true;
+                if (batch.contains(STOP)) {
+                    return;
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Write the whole snapshot as a checkpoint and start a new journal.
+     */
+    private void checkpoint(SceneSnapshot snapshot) throws IOException {
+        lastCheckpoint = System.currentTimeMillis();
+        latest = snapshot;
+        needsCheckpoint = true;
+        buffer.clear();
+
+        Files.createDirectories(directory);
+        sequence++;
+        BinarySceneWriter.write(snapshot, checkpointFile(sequence));
+        // the checkpoint's contents are on disk before it gets its name, but
+        // the name itself is only safe once the directory is; until then a
+        // crash may leave the old checkpoint, which needs the old journal
+        syncDirectory();
+        checkpointSequence = sequence;
+
+        // records from before the checkpoint would be skipped anyway, so it
+        // doesn't matter if we stop before the journal is cleared
+        if (journal == null) {
+            journal = FileChannel.open(directory.resolve(JOURNAL_NAME), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+        }
+        journal.truncate(0);
+        journal.position(0);
+        buffer.put(MAGIC);
+        buffer.putShort(VERSION);
+        flushJournal();
+
+        for (Path file : listCheckpoints()) {
+            if (checkpointSequence(file) < sequence) {
+                Files.deleteIfExists(file);
+            }
+        }
+        needsCheckpoint = false;
+    }
+
+    /**
+     * Add a record of the snapshot's changes to the journal buffer.
+     */
+    private void append(SceneSnapshot snapshot) {
+        latest = snapshot;
+        List<SceneChange> changes = snapshot.getChanges();
+        if (changes.isEmpty()) {
+            return;
+        }
+        int length = 8 + 4;
+        for (SceneChange change : changes) {
+            length += change.shape != null ? SHAPE_CHANGE_SIZE : REMOVE_CHANGE_SIZE;
+        }
+        if (buffer.remaining() < length + 8) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length + 8));
+            buffer.flip();
+            buffer = bigger.order(BinarySceneFormat.ORDER).put(buffer);
+        }
+
+        sequence++;
+        buffer.putInt(length);
+        int start = buffer.position();
+        buffer.putLong(sequence);
+        buffer.putInt(changes.size());
+        for (SceneChange change : changes) {
+            buffer.put((byte) change.kind.ordinal());
+            buffer.putInt(change.index);
+            if (change.shape != null) {
+                buffer.putInt(change.shape.getColor().getRGB());
+                BinarySceneWriter.writeRecord(buffer, change.shape, 0);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), start, length);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    private void flushJournal() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+        buffer.clear();
+        journal.force(false);
+    }
+
+    /**
+     * Apply the journal records that come after the newest checkpoint to
+     * its shapes. Replay stops at the first record that was only partly
+     * written or doesn't make sense, keeping what the records before it
+     * recovered.
+     */
+    private void replay(List<IShape> shapes) throws IOException {
+        ByteBuffer in;
+        try {
+            in = ByteBuffer.wrap(Files.readAllBytes(directory.resolve(JOURNAL_NAME))).order(BinarySceneFormat.ORDER);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        if (in.remaining() < HEADER_SIZE) {
+            return;
+        }
+        for (byte b : MAGIC) {
+            if (in.get() != b) {
+                throw new IOException("The autosave journal is corrupt");
+            }
+        }
+        short version = in.getShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported autosave journal version " + version);
+        }
+
+        CRC32 crc = new CRC32();
+        while (in.remaining() >= 4) {
+            int length = in.getInt();
+            if (length < 12 || in.remaining() < length + 4) {
+                return;
+            }
+            int start = in.position();
+            crc.reset();
+            crc.update(in.array(), start, length);
+            if (in.getInt(start + length) != (int) crc.getValue()) {
+                return;
+            }
+            long recordSequence = in.getLong();
+            if (recordSequence <= sequence) {
+                // already in the checkpoint
+                in.position(start + length + 4);
+                continue;
+            }
+            if (recordSequence != sequence + 1) {
+                return;
+            }
+            List<SceneChange> changes = readChanges(in, start + length, shapes.size());
+            if (changes == null) {
+                EventLog.warn("Autosave journal record %d is corrupt, recovering only the records before it",
+                        recordSequence);
+                return;
+            }
+            sequence = recordSequence;
+            for (SceneChange change : changes) {
+                if (change.kind == SceneChange.Kind.REMOVE) {
+                    shapes.remove(change.index);
+                } else if (change.kind == SceneChange.Kind.SET) {
+                    shapes.set(change.index, change.shape);
+                } else {
+                    shapes.add(change.index, change.shape);
+                }
+            }
+            in.position(start + length + 4);
+        }
+    }
+
+    /**
+     * Read the changes of the journal record that ends at the given
+     * position, checking each against the number of shapes it will apply
+     * to. Return null if any is corrupt, so that the record is not applied
+     * at all.
+     */
+    private static List<SceneChange> readChanges(ByteBuffer in, int end, int size) {
+        SceneChange.Kind[] kinds = SceneChange.Kind.values();
+        int count = in.getInt();
+        List<SceneChange> changes = new ArrayList<SceneChange>();
+        for (int i = 0; i < count; i++) {
+            if (end - in.position() < REMOVE_CHANGE_SIZE) {
+                return null;
+            }
+            int kind = in.get();
+            int index = in.getInt();
+            if (kind < 0 || kind >= kinds.length || index < 0
+                    || index > size || (kind != SceneChange.Kind.INSERT.ordinal() && index == size)) {
+                return null;
+            }
+            if (kinds[kind] == SceneChange.Kind.REMOVE) {
+                changes.add(new SceneChange(SceneChange.Kind.REMOVE, index, null));
+                size--;
+                continue;
+            }
+            if (end - in.position() < SHAPE_CHANGE_SIZE - REMOVE_CHANGE_SIZE) {
+                return null;
+            }
+            Color color = BinarySceneReader.toColor(in.getInt());
+            IShape shape = BinarySceneReader.readRecord(in, color);
+            if (shape == null) {
+                return null;
+            }
+            changes.add(new SceneChange(kinds[kind], index, shape));
+            if (kinds[kind] == SceneChange.Kind.INSERT) {
+                size++;
+            }
+        }
+        return in.position() == end ? changes : null;
+    }
+
+    /**
+     * Flush the directory's entries to disk. Not every platform can open a
+     * directory to do this; where it can't, renames are left to the file
+     * system.
+     */
+    private void syncDirectory() throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void deleteFiles() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        Files.deleteIfExists(directory.resolve(JOURNAL_NAME));
+        for (Path file : listCheckpoints()) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private List<Path> listCheckpoints() throws IOException {
+        List<Path> checkpoints = new ArrayList<Path>();
+        if (!Files.isDirectory(directory)) {
+            return checkpoints;
+        }
+        String glob = CHECKPOINT_PREFIX + "*" + SceneFiles.BINARY_EXTENSION;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, glob)) {
+            for (Path file : files) {
+                if (checkpointSequence(file) >= 0) {
+                    checkpoints.add(file);
+                }
+            }
+        }
+        return checkpoints;
+    }
+
+    private Path checkpointFile(long checkpoint) {
+        return directory.resolve(CHECKPOINT_PREFIX + checkpoint + SceneFiles.BINARY_EXTENSION);
+    }
+
+    /**
+     * Return the sequence number in the name of a checkpoint, or -1 if the
+     * name isn't one we made.
+     */
+    private static long checkpointSequence(Path file) {
+        String name = file.getFileName().toString();
+        String number = name.substring(CHECKPOINT_PREFIX.length(),
+                name.length() - SceneFiles.BINARY_EXTENSION.length());
+        try {
+            return Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static class Pending {
+        final SceneSnapshot snapshot;
+        // write the whole scene instead of a journal record
+        final boolean checkpoint;
+
+        Pending(SceneSnapshot snapshot, boolean checkpoint) {
+            this.snapshot = snapshot;
+            this.checkpoint = checkpoint;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package drawshapes;
+
+import java.nio.ByteOrder;
+
+/**
+ * Layout of the binary scene format, version 1.
+ *
+ * All numbers are little-endian. The file starts with a 24 byte header:
+ *
+ * <pre>
+ * magic          4 bytes  "DSHB"
+ * version        short
+ * reserved       short
+ * shape count    long
+ * palette offset long     where the palette starts
+ * </pre>
+ *
+ * followed by one fixed-width 24 byte record per shape, in drawing order:
+ *
+ * <pre>
+ * type           byte     SQUARE, CIRCLE or RECTANGLE below
+ * flags          byte     FLAG_SELECTED
+ * color          short    index into the palette
+ * x, y           int      top-left corner
+ * width, height  int      a circle's width and height are its diameter
+ * rotation       float    degrees
+ * </pre>
+ *
+ * and ends with the palette: an int count followed by that many ARGB ints.
+ * The palette goes last so the file can be written in one pass.
+ */
+final class BinarySceneFormat {
+
+    static final byte[] MAGIC = { 'D', 'S', 'H', 'B' };
+    static final short VERSION = 1;
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    static final int HEADER_SIZE = 24;
+    static final int COUNT_OFFSET = 8;
+    static final int RECORD_SIZE = 24;
+    static final int MAX_PALETTE = 0xffff;
+
+    static final byte SQUARE = 0;
+    static final byte CIRCLE = 1;
+    static final byte RECTANGLE = 2;
+
+    static final byte FLAG_SELECTED = 1;
+
+    private BinarySceneFormat() {
+    }
+}
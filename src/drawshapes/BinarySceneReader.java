@@ -0,0 +1,191 @@
+package drawshapes;
+
+import java.awt.Color;
+import java.awt.Point;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads shapes in the binary scene format described in BinarySceneFormat.
+ *
+ * The file is memory-mapped, a window of records at a time, so reading a
+ * shape is a handful of loads from the mapped buffer with no parsing and
+ * no copying through Java heap buffers.
+ */
+public class BinarySceneReader implements IShapeReader {
+
+    // map this many records at a time, to stay well under the 2 GB limit
+    // of a single mapping
+    private static final long WINDOW_RECORDS = 1 << 20;
+
+    private static final Color[] STANDARD_COLORS = {
+        Color.RED, Color.BLUE, Color.GREEN, Color.YELLOW, Color.BLACK
+    };
+
+    private final FileChannel channel;
+    private final long count;
+    private final Color[] palette;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long next;
+
+    public BinarySceneReader(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = map(0, BinarySceneFormat.HEADER_SIZE);
+            for (byte b : BinarySceneFormat.MAGIC) {
+                if (header.get() != b) {
+                    throw new IOException(file + " is not a binary scene file");
+                }
+            }
+            short version = header.getShort();
+            if (version != BinarySceneFormat.VERSION) {
+                throw new IOException("Unsupported binary scene version " + version);
+            }
+            header.getShort();
+            this.count = header.getLong();
+            long paletteOffset = header.getLong();
+            if (count < 0 || paletteOffset != BinarySceneFormat.HEADER_SIZE + count * BinarySceneFormat.RECORD_SIZE
+                    || paletteOffset + 4 > channel.size()) {
+                throw new IOException(file + " is truncated or corrupt");
+            }
+            ByteBuffer paletteBuffer = map(paletteOffset, channel.size() - paletteOffset);
+            int colors = paletteBuffer.getInt();
+            if (colors < 0 || paletteBuffer.remaining() < colors * 4L) {
+                throw new IOException(file + " has a corrupt palette");
+            }
+            this.palette = new Color[colors];
+            for (int i = 0; i < colors; i++) {
+                palette[i] = toColor(paletteBuffer.getInt());
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Is the given file in the binary scene format?
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static boolean isBinary(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(BinarySceneFormat.MAGIC.length);
+            while (magic.hasRemaining() && channel.read(magic) > 0) {
+                // keep reading
+            }
+            if (magic.hasRemaining()) {
+                return false;
+            }
+            for (int i = 0; i < BinarySceneFormat.MAGIC.length; i++) {
+                if (magic.get(i) != BinarySceneFormat.MAGIC[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Return how many shapes the file holds.
+     */
+    public long getShapeCount() {
+        return count;
+    }
+
+    @Override
+    public IShape readShape() throws IOException {
+        if (next == count) {
+            return null;
+        }
+        if (window == null || next - windowStart == WINDOW_RECORDS) {
+            windowStart = next;
+            long records = Math.min(WINDOW_RECORDS, count - next);
+            window = map(BinarySceneFormat.HEADER_SIZE + next * BinarySceneFormat.RECORD_SIZE,
+                    records * BinarySceneFormat.RECORD_SIZE);
+        }
+        next++;
+
+        int start = window.position();
+        int colorIndex = window.getShort(start + 2) & 0xffff;
+        if (colorIndex >= palette.length) {
+            throw new IOException("Shape " + next + " has a bad color index " + colorIndex);
+        }
+        IShape shape = readRecord(window, palette[colorIndex]);
+        if (shape == null) {
+            throw new IOException("Shape " + next + " has an unknown type " + window.get(start));
+        }
+        return shape;
+    }
+
+    /**
+     * Read one fixed-width record from the buffer and make the shape it
+     * describes, in the given color. The palette index in the record is
+     * skipped.
+     *
+     * @return the shape, or null if the record has an unknown type
+     */
+    static IShape readRecord(ByteBuffer buffer, Color color) {
+        byte type = buffer.get();
+        byte flags = buffer.get();
+        buffer.getShort();
+        int x = buffer.getInt();
+        int y = buffer.getInt();
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        float rotation = buffer.getFloat();
+
+        IShape shape;
+        if (type == BinarySceneFormat.SQUARE) {
+            shape = new Square(color, x + width / 2, y + width / 2, width);
+        } else if (type == BinarySceneFormat.CIRCLE) {
+            shape = new Circle(color, new Point(x + width / 2, y + width / 2), width);
+        } else if (type == BinarySceneFormat.RECTANGLE) {
+            shape = new Rectangle(new Point(x + width / 2, y + height / 2), width, height, color);
+        } else {
+            return null;
+        }
+        if (rotation != 0 && shape instanceof Rectangle) {
+            ((Rectangle) shape).rotate(rotation);
+        }
+        shape.setSelected((flags & BinarySceneFormat.FLAG_SELECTED) != 0);
+        return shape;
+    }
+
+    @Override
+    public long getBytesRead() {
+        return BinarySceneFormat.HEADER_SIZE + next * BinarySceneFormat.RECORD_SIZE;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    private MappedByteBuffer map(long position, long size) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        buffer.order(BinarySceneFormat.ORDER);
+        return buffer;
+    }
+
+    /**
+     * Use the shared Color constants for the colors the menus offer, since
+     * some code compares colors by identity.
+     */
+    static Color toColor(int argb) {
+        for (Color c : STANDARD_COLORS) {
+            if (c.getRGB() == argb) {
+                return c;
+            }
+        }
+        return new Color(argb, true);
+    }
+}
@@ -0,0 +1,149 @@
+package drawshapes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes shapes in the binary scene format described in
+ * BinarySceneFormat.
+ */
+public class BinarySceneWriter {
+
+    private BinarySceneWriter() {
+    }
+
+    /**
+     * Save the shapes to the given file. Like SceneWriter.write, the file
+     * is written next to the target and then renamed over it. The contents
+     * are forced to disk before the rename, so a crash can't leave the new
+     * name on a file whose data never made it.
+     *
+     * @param shapes
+     * @param file
+     * @throws IOException
+     */
+    public static void write(Iterable<IShape> shapes, Path file) throws IOException {
+        Path target = file.toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                writeTo(shapes, channel);
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeTo(Iterable<IShape> shapes, FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024).order(BinarySceneFormat.ORDER);
+        Map<Integer, Integer> paletteIndex = new HashMap<>();
+        List<Integer> palette = new ArrayList<>();
+
+        // the count and palette offset are filled in at the end
+        buffer.put(BinarySceneFormat.MAGIC);
+        buffer.putShort(BinarySceneFormat.VERSION);
+        buffer.putShort((short) 0);
+        buffer.putLong(0);
+        buffer.putLong(0);
+
+        long count = 0;
+        for (IShape s : shapes) {
+            if (buffer.remaining() < BinarySceneFormat.RECORD_SIZE) {
+                flush(buffer, channel);
+            }
+            int rgb = s.getColor().getRGB();
+            Integer color = paletteIndex.get(rgb);
+            if (color == null) {
+                if (palette.size() == BinarySceneFormat.MAX_PALETTE) {
+                    throw new IOException("Too many colors for the binary format");
+                }
+                color = palette.size();
+                paletteIndex.put(rgb, color);
+                palette.add(rgb);
+            }
+            writeRecord(buffer, s, color);
+            count++;
+        }
+
+        long paletteOffset = BinarySceneFormat.HEADER_SIZE + count * BinarySceneFormat.RECORD_SIZE;
+        for (int i = -1; i < palette.size(); i++) {
+            if (buffer.remaining() < 4) {
+                flush(buffer, channel);
+            }
+            buffer.putInt(i < 0 ? palette.size() : palette.get(i));
+        }
+        flush(buffer, channel);
+
+        buffer.putLong(count);
+        buffer.putLong(paletteOffset);
+        buffer.flip();
+        channel.position(BinarySceneFormat.COUNT_OFFSET);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Put the fixed-width record of one shape into the buffer, with the
+     * given palette index as its color.
+     */
+    static void writeRecord(ByteBuffer buffer, IShape s, int color) {
+        byte type;
+        int x;
+        int y;
+        int width;
+        int height;
+        double rotation = 0;
+        if (s instanceof Rectangle) {
+            Rectangle rect = (Rectangle) s;
+            type = s instanceof Square ? BinarySceneFormat.SQUARE : BinarySceneFormat.RECTANGLE;
+            x = rect.getAnchorPoint().x;
+            y = rect.getAnchorPoint().y;
+            width = rect.getWidth();
+            height = rect.getHeight();
+            rotation = rect.getRotation();
+        } else if (s instanceof Circle) {
+            // the anchor of a circle is its center
+            Circle circle = (Circle) s;
+            type = BinarySceneFormat.CIRCLE;
+            width = circle.getDiameter();
+            height = width;
+            x = circle.getAnchorPoint().x - width / 2;
+            y = circle.getAnchorPoint().y - width / 2;
+        } else {
+            throw new UnsupportedOperationException("Cannot save " + s);
+        }
+        buffer.put(type);
+        buffer.put(s.isSelected() ? BinarySceneFormat.FLAG_SELECTED : 0);
+        buffer.putShort((short) color);
+        buffer.putInt(x);
+        buffer.putInt(y);
+        buffer.putInt(width);
+        buffer.putInt(height);
+        buffer.putFloat((float) rotation);
+    }
+
+    private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
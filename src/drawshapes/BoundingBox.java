@@ -2,53 +2,93 @@ package drawshapes;
 
 import java.awt.Point;
 
+/**
+ * The smallest axis-aligned box around a shape. The edges are inclusive.
+ *
+ * A shape keeps one bounding box for its whole life and updates it in
+ * place when it moves or changes size, so hit-testing and dragging don't
+ * create garbage. Code that wants to remember a box must copy it.
+ */
 class BoundingBox {
 
     private int left;
     private int right;
     private int top;
     private int bottom;
-    private Point[] corners = new Point[4];
 
     BoundingBox(int left, int right, int top, int bottom) {
+        set(left, right, top, bottom);
+    }
+
+    BoundingBox(BoundingBox other) {
+        set(other.left, other.right, other.top, other.bottom);
+    }
+
+    void set(int left, int right, int top, int bottom) {
         this.left = left;
         this.right = right;
         this.top = top;
         this.bottom = bottom;
-        this.corners[0] = new Point(left, top);
-        this.corners[1] = new Point(left, bottom);
-        this.corners[2] = new Point(right, bottom);
-        this.corners[3] = new Point(right, top);
+    }
+
+    void set(BoundingBox other) {
+        set(other.left, other.right, other.top, other.bottom);
+    }
+
+    void translate(int dx, int dy) {
+        left += dx;
+        right += dx;
+        top += dy;
+        bottom += dy;
+    }
+
+    /**
+     * Grow this box to also cover the other one.
+     */
+    void add(BoundingBox other) {
+        left = Math.min(left, other.left);
+        right = Math.max(right, other.right);
+        top = Math.min(top, other.top);
+        bottom = Math.max(bottom, other.bottom);
     }
 
     boolean contains(Point p) {
-        return p.x >= left && p.x <= right && p.y >= top && p.y <= bottom;
+        return contains(p.x, p.y);
+    }
+
+    boolean contains(int x, int y) {
+        return x >= left && x <= right && y >= top && y <= bottom;
     }
 
     public String toString() {
         return String.format("left=%d right=%d top=%d bottom=%d", this.left, this.right, this.top, this.bottom);
     }
 
+    /**
+     * Do the two boxes overlap? Two boxes overlap exactly when their x
+     * intervals and their y intervals both overlap, which also covers
+     * boxes that cross without either one containing a corner of the
+     * other.
+     */
     boolean intersects(BoundingBox other) {
-        // are any of my corners in their bounding box?
-        for (Point corner : corners) {
-            if (other.contains(corner)) {
-                return true;
-            }
-        }
-        // are any of their corners in my bounding box?
-        for (Point corner : other.corners) {
-            if (this.contains(corner)) {
-                return true;
-            }
-        }
-        // Check for the case where we intersect but no corners are contained
-        if (this.left < other.left && this.right > other.right
-                && this.top > other.top && this.bottom < other.bottom) {
-            return true;
-        }
-        return this.left > other.left && this.right < other.right
-                && this.top < other.top && this.bottom > other.bottom;
+        return overlaps(other.left, other.right, other.top, other.bottom);
+    }
+
+    /**
+     * Does this box overlap the box with the given edges?
+     */
+    boolean overlaps(int left, int right, int top, int bottom) {
+        return this.left <= right && left <= this.right
+                && this.top <= bottom && top <= this.bottom;
+    }
+
+    /**
+     * Return the smallest box containing both this box and the other one.
+     */
+    BoundingBox union(BoundingBox other) {
+        BoundingBox union = new BoundingBox(this);
+        union.add(other);
+        return union;
     }
 
     public int getLeft() {
@@ -17,13 +17,28 @@ public class Circle extends AbstractShape {
         this.radius = diameter / 2;
     }
 
+    private Circle(Circle other) {
+        super(new Point(other.anchorPoint));
+        this.boundingBox = new BoundingBox(other.boundingBox);
+        this.color = other.color;
+        this.selected = other.selected;
+        this.diameter = other.diameter;
+        this.radius = other.radius;
+    }
+
+    @Override
+    public Circle copy() {
+        return new Circle(this);
+    }
+
     @Override
     public void draw(Graphics g) {
-        if (isSelected()) {
-            g.setColor(this.color.darker());
-        } else {
-            g.setColor(getColor());
-        }
+        g.setColor(getDrawColor());
+        fill(g);
+    }
+
+    @Override
+    public void fill(Graphics g) {
         g.fillOval((int) getAnchorPoint().getX() - diameter / 2,
                 (int) getAnchorPoint().getY() - diameter / 2,
                 diameter,
@@ -57,21 +72,80 @@ public class Circle extends AbstractShape {
         );
     }
 
+    /**
+     * Is the point inside the circle, not just inside its bounding box?
+     */
+    @Override
+    protected boolean containsExactly(double x, double y) {
+        double dx = x - getCenterX();
+        double dy = y - getCenterY();
+        double r = diameter / 2.0;
+        return dx * dx + dy * dy <= r * r;
+    }
+
+    @Override
+    protected boolean intersectsExactly(IShape other) {
+        if (other instanceof Circle) {
+            Circle c = (Circle) other;
+            double dx = c.getCenterX() - getCenterX();
+            double dy = c.getCenterY() - getCenterY();
+            double r = (diameter + c.diameter) / 2.0;
+            return dx * dx + dy * dy <= r * r;
+        }
+        if (other instanceof Rectangle) {
+            return intersectsRectangle((Rectangle) other);
+        }
+        return true;
+    }
+
+    /**
+     * Does this circle overlap the (possibly rotated) rectangle? True when
+     * the nearest point of the rectangle to the center is within the
+     * radius.
+     */
+    boolean intersectsRectangle(Rectangle rect) {
+        double r = diameter / 2.0;
+        return rect.distanceSquaredTo(getCenterX(), getCenterY()) <= r * r;
+    }
+
+    // where fillOval in draw() puts the center
+    private double getCenterX() {
+        return anchorPoint.x - diameter / 2 + diameter / 2.0;
+    }
+
+    private double getCenterY() {
+        return anchorPoint.y - diameter / 2 + diameter / 2.0;
+    }
+
     public int getRadius() {
         return diameter / 2;
     }
 
     public void setRadius(int radius) {
-        this.diameter = radius * 2;
+        setDiameter(radius * 2);
+    }
+
+    public int getDiameter() {
+        return diameter;
+    }
+
+    public void setDiameter(int diameter) {
+        this.diameter = diameter;
         updateBoundingBox();
     }
 
+    @Override
+    public long contentHash() {
+        return mixHash(baseContentHash(), diameter);
+    }
+
     private void updateBoundingBox() {
+        // the anchor of a circle is its center
         setBoundingBox(
-                anchorPoint.x,
-                anchorPoint.x + diameter,
-                anchorPoint.y,
-                anchorPoint.y + diameter
+                anchorPoint.x - diameter / 2,
+                anchorPoint.x + diameter / 2,
+                anchorPoint.y - diameter / 2,
+                anchorPoint.y + diameter / 2
         );
     }
 
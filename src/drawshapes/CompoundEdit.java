@@ -0,0 +1,61 @@
+package drawshapes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A group of edits that are undone and redone together, such as all the
+ * small moves that make up one mouse drag.
+ * 
+ * Consecutive moves or rotations of the same shapes are folded into a
+ * single edit as they are added, so a long drag still costs one small
+ * edit rather than one per mouse event.
+ */
+public class CompoundEdit implements Edit {
+
+    private final List<Edit> edits = new ArrayList<>();
+
+    public void add(Edit edit) {
+        if (!edits.isEmpty()) {
+            Edit last = edits.get(edits.size() - 1);
+            Edit merged = null;
+            if (last instanceof MoveEdit && edit instanceof MoveEdit) {
+                merged = ((MoveEdit) last).merge((MoveEdit) edit);
+            } else if (last instanceof RotateEdit && edit instanceof RotateEdit) {
+                merged = ((RotateEdit) last).merge((RotateEdit) edit);
+            }
+            if (merged != null) {
+                edits.set(edits.size() - 1, merged);
+                return;
+            }
+        }
+        edits.add(edit);
+    }
+
+    public boolean isEmpty() {
+        return edits.isEmpty();
+    }
+
+    @Override
+    public void redo(Scene scene) {
+        for (Edit edit : edits) {
+            edit.redo(scene);
+        }
+    }
+
+    @Override
+    public void undo(Scene scene) {
+        for (int i = edits.size() - 1; i >= 0; i--) {
+            edits.get(i).undo(scene);
+        }
+    }
+
+    @Override
+    public long estimateBytes() {
+        long bytes = 2 * UndoHistory.OBJECT_BYTES;
+        for (Edit edit : edits) {
+            bytes += UndoHistory.REFERENCE_BYTES + edit.estimateBytes();
+        }
+        return bytes;
+    }
+}
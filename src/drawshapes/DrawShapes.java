@@ -14,17 +14,28 @@ import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
-import java.util.Iterator;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Stack;
+import java.util.concurrent.ExecutionException;
 
+import javax.imageio.ImageIO;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 
 @SuppressWarnings("serial")
 public class DrawShapes extends JFrame {
@@ -43,16 +54,31 @@ public class DrawShapes extends JFrame {
         ROTATE  // new feature to rotate rectangles
     }
 
+    // how much one wheel click or menu command zooms
+    private static final double ZOOM_STEP = 1.25;
+    // the most pixels across an exported image may be
+    private static final int MAX_EXPORT_SIZE = 8192;
+
     // Main class variables - organized better
     private DrawShapesPanel shapePanel;
     private Scene scene;
+    private Autosave autosave;
+    // true until the last session's work has been looked for
+    private boolean recovering;
     private ShapeType shapeType = ShapeType.SQUARE;  // default shape is square
     private Color color = Color.RED;                 // default color is red
     private Point startDrag;                         // for dragging shapes
     private OperationMode currentMode = OperationMode.DRAW;  // default mode is draw
     private Point lastDragPoint;                     // helps track mouse movement
-    private Stack<Scene> undoStack = new Stack<>();  // for undo feature
-    private Stack<Scene> redoStack = new Stack<>();  // for redo feature
+    private List<IShape> movingShapes;               // the shapes a move drag moves
+    private Point pendingDrag;                       // where the mouse was dragged since the last frame
+    private int pendingWheelClicks;                  // wheel clicks since the last frame
+    private Point panFrom;                           // where a middle-button pan was last applied from
+    private int pendingPanX;                         // pixels panned since the last frame
+    private int pendingPanY;
+    private int pendingZoomClicks;                   // zoom wheel clicks since the last frame
+    private Point zoomCenter;                        // where the mouse was for those clicks
+    private FrameScheduler frames;
 
     public DrawShapes(int width, int height) {
         // Set window title
@@ -61,13 +87,6 @@ public class DrawShapes extends JFrame {
         // Create new scene
         scene = new Scene();
 
-        // Initialize first state for undo
-        try {
-            undoStack.push(scene.clone());
-        } catch (CloneNotSupportedException e) {
-            e.printStackTrace();
-        }
-
         // Create canvas panel with specified size
         shapePanel = new DrawShapesPanel(width, height, scene);
 
@@ -75,7 +94,7 @@ public class DrawShapes extends JFrame {
         this.getContentPane().add(shapePanel, BorderLayout.CENTER);
 
         // Set window properties
-        this.setResizable(false);
+        this.setResizable(true);
         this.setLocation(100, 100);
 
         // Important: Pack the frame to proper size
@@ -84,14 +103,29 @@ public class DrawShapes extends JFrame {
         // Center window on screen
         this.setLocationRelativeTo(null);
 
+        // Input is applied and painted at most once per frame
+        frames = new FrameScheduler(FrameScheduler.DEFAULT_FPS, new Runnable() {
+            public void run() {
+                RenderMetrics metrics = shapePanel.getMetrics();
+                metrics.beginInput();
+                applyPendingInput();
+                metrics.endInput();
+                shapePanel.repaintDirty();
+            }
+        });
+        shapePanel.getMetrics().setFrameScheduler(frames);
+        shapePanel.getMetrics().register();
+
         // Rest of your initialization code...
         initializeMouseListener();
         initializeKeyListener();
         initializeMenu();
+        startAutosave();
 
         // Handle closing
         addWindowListener(new WindowAdapter() {
             public void windowClosing(WindowEvent e) {
+                autosave.close();
                 System.exit(0);
             }
         });
@@ -102,12 +136,16 @@ public class DrawShapes extends JFrame {
      * - Mouse drag for moving shapes
      * - Mouse wheel for resizing and rotation
      * - Right click for selecting shapes
+     * - Middle drag to pan, and the wheel (or control and the wheel, in the
+     *   modes where the wheel does something else) to zoom
+     * The mouse is on the screen, so points are turned into scene
+     * coordinates through the panel's viewport.
      */
     private void initializeMouseListener() {
         MouseAdapter a = new MouseAdapter() {
 
             public void mouseClicked(MouseEvent e) {
-                System.out.printf("Mouse cliked at (%d, %d)\n", e.getX(), e.getY());
+                EventLog.debug("Mouse clicked at (%d, %d)", e.getX(), e.getY());
 
                 if (e.getButton() == MouseEvent.BUTTON1) {
                     if (currentMode == OperationMode.DRAW) {
@@ -115,28 +153,28 @@ public class DrawShapes extends JFrame {
                         deselectAllShapes();
 
                         // Create the shape first
+                        Point p = toScene(e.getPoint());
                         IShape newShape = null;
                         if (shapeType == ShapeType.SQUARE) {
-                            newShape = new Square(color, e.getX(), e.getY(), 100);
+                            newShape = new Square(color, p.x, p.y, 100);
                         } else if (shapeType == ShapeType.CIRCLE) {
-                            newShape = new Circle(color, e.getPoint(), 100);
+                            newShape = new Circle(color, p, 100);
                         } else if (shapeType == ShapeType.RECTANGLE) {
-                            newShape = new Rectangle(e.getPoint(), 100, 200, color);
+                            newShape = new Rectangle(p, 100, 200, color);
                         }
 
                         if (newShape != null) {
-                            saveState(); // Save state before adding a new shape
-                            scene.addShape(newShape);
-                            repaint();
+                            scene.apply(new AddEdit(newShape));
+                            shapePanel.repaintDirty();
                         }
                     }
                 } else if (e.getButton() == MouseEvent.BUTTON2) {
                     // apparently this is middle click
                 } else if (e.getButton() == MouseEvent.BUTTON3) {
                     // right-click for selection
-                    Point p = e.getPoint();
-                    System.out.printf("Right click is (%d, %d)\n", p.x, p.y);
-                    List<IShape> selected = scene.select(p);
+                    Point p = toScene(e.getPoint());
+                    EventLog.debug("Right click is (%d, %d)", p.x, p.y);
+                    List<IShape> selected = shapesAt(e.getPoint());
                     if (selected.size() > 0) {
                         for (IShape s : selected) {
                             s.setSelected(true);
@@ -144,8 +182,8 @@ public class DrawShapes extends JFrame {
                     } else {
                         deselectAllShapes();
                     }
-                    System.out.printf("Select %d shapes\n", selected.size());
-                    repaint();
+                    EventLog.debug("Select %d shapes", selected.size());
+                    shapePanel.repaintDirty();
                 }
             }
 
@@ -153,20 +191,29 @@ public class DrawShapes extends JFrame {
              * @see java.awt.event.MouseListener#mousePressed(java.awt.event.MouseEvent)
              */
             public void mousePressed(MouseEvent e) {
-                System.out.printf("mouse pressed at (%d, %d)\n", e.getX(), e.getY());
+                EventLog.debug("mouse pressed at (%d, %d)", e.getX(), e.getY());
+                if (SwingUtilities.isMiddleMouseButton(e)) {
+                    // panning only changes the view, not the scene
+                    panFrom = e.getPoint();
+                    return;
+                }
+                // everything this gesture changes becomes one undo step
+                scene.beginTransaction();
                 if (currentMode == OperationMode.MOVE) {
-                    Point p = e.getPoint();
-                    List<IShape> selectedShapes = scene.select(p);
+                    Point p = toScene(e.getPoint());
+                    List<IShape> selectedShapes = shapesAt(e.getPoint());
                     if (selectedShapes.size() > 0) {
                         // Set these shapes as selected if they weren't already
                         for (IShape shape : selectedShapes) {
                             shape.setSelected(true);
                         }
+                        // the selection can't change until the button is released
+                        movingShapes = Collections.unmodifiableList(scene.getSelectedShapes());
                         lastDragPoint = p;
                     }
                 } else {
                     // Original selection rectangle behavior
-                    scene.startDrag(e.getPoint());
+                    scene.startDrag(toScene(e.getPoint()));
                 }
 
             }
@@ -175,111 +222,44 @@ public class DrawShapes extends JFrame {
              * @see java.awt.event.MouseListener#mouseReleased(java.awt.event.MouseEvent)
              */
             public void mouseReleased(MouseEvent e) {
-                System.out.printf("mouse released at (%d, %d)\n", e.getX(), e.getY());
+                EventLog.debug("mouse released at (%d, %d)", e.getX(), e.getY());
+                // finish the drag before the gesture is committed
+                frames.flush();
+                if (SwingUtilities.isMiddleMouseButton(e)) {
+                    panFrom = null;
+                    return;
+                }
                 lastDragPoint = null;
+                movingShapes = null;
                 scene.stopDrag();
-                repaint();
+                scene.commitTransaction();
+                shapePanel.repaintDirty();
             }
 
             @Override
             public void mouseDragged(MouseEvent e) {
-                if (currentMode == OperationMode.ROTATE && lastDragPoint != null) {
-                    for (IShape shape : scene) {
-                        if (shape.isSelected() && shape instanceof Rectangle) {
-                            Rectangle rect = (Rectangle) shape;
-                            Point center = rect.getAnchorPoint();
-
-                            // Calculate angles from center to mouse positions
-                            double lastAngle = Math.atan2(lastDragPoint.y - center.y, lastDragPoint.x - center.x);
-                            double currentAngle = Math.atan2(e.getY() - center.y, e.getX() - center.x);
-
-                            // Convert to degrees and get the difference
-                            double deltaAngle = Math.toDegrees(currentAngle - lastAngle);
-
-                            // Apply rotation
-                            rect.rotate(deltaAngle);
-                            saveState();
-                            repaint();
-                        }
-                    }
-                    lastDragPoint = e.getPoint();
-                } else if (currentMode == OperationMode.MOVE && lastDragPoint != null) {
-                    // Calculate movement delta
-                    int dx = e.getX() - lastDragPoint.x;
-                    int dy = e.getY() - lastDragPoint.y;
-
-                    boolean anyShapeMoved = false;
-                    for (IShape shape : scene) {
-                        if (shape.isSelected()) {
-                            anyShapeMoved = true;
-                            Point currentAnchor = shape.getAnchorPoint();
-                            shape.setAnchorPoint(new Point(
-                                    currentAnchor.x + dx,
-                                    currentAnchor.y + dy
-                            ));
-                        }
-                    }
-
-                    if (anyShapeMoved) {
-                        saveState(); // Save state after moving shapes
-                    }
-
-                    lastDragPoint = e.getPoint();
-                    repaint();
+                // only remember where the mouse got to; the next frame
+                // applies it, however many drag events arrive before then
+                if (panFrom != null) {
+                    pendingPanX += e.getX() - panFrom.x;
+                    pendingPanY += e.getY() - panFrom.y;
+                    panFrom = e.getPoint();
                 } else {
-                    // Original selection rectangle behavior
-                    System.out.printf("mouse drag! (%d, %d)\n", e.getX(), e.getY());
-                    scene.updateSelectRect(e.getPoint());
-                    repaint();
+                    pendingDrag = e.getPoint();
                 }
+                frames.requestFrame();
             }
 
             @Override
             public void mouseWheelMoved(MouseWheelEvent e) {
-                if (currentMode == OperationMode.RESIZE) {
-                    saveState(); // Add this line
-                    System.out.println("Resizing..."); // Debug output
-
-                    // Make scaling more dramatic and inverse the direction
-                    double scaleFactor = e.getWheelRotation() > 0 ? 0.8 : 1.2;
-
-                    for (IShape shape : scene) {
-                        if (shape.isSelected()) {
-                            System.out.println("Found selected shape"); // Debug output
-
-                            if (shape instanceof Rectangle) {
-                                Rectangle rect = (Rectangle) shape;
-                                if (shape instanceof Square) {
-                                    int newSize = Math.max(20, (int) (rect.getWidth() * scaleFactor));
-                                    ((Square) rect).setSize(newSize);
-                                } else {
-                                    int newWidth = Math.max(20, (int) (rect.getWidth() * scaleFactor));
-                                    int newHeight = Math.max(20, (int) (rect.getHeight() * scaleFactor));
-                                    rect.setWidth(newWidth);
-                                    rect.setHeight(newHeight);
-                                }
-                            } else if (shape instanceof Circle) {
-                                Circle circle = (Circle) shape;
-                                int newRadius = Math.max(10, (int) (circle.getRadius() * scaleFactor));
-                                circle.setRadius(newRadius);
-                            }
-                        }
-                    }
-                    repaint();
-                } else if (currentMode == OperationMode.ROTATE) {
-                    saveState();
-
-                    // Rotate 15 degrees per wheel click
-                    double rotationAmount = e.getWheelRotation() > 0 ? 15 : -15;
-
-                    for (IShape shape : scene) {
-                        if (shape.isSelected() && shape instanceof Rectangle) {
-                            Rectangle rect = (Rectangle) shape;
-                            rect.rotate(rotationAmount);
-                        }
-                    }
-                    repaint();
+                if (e.isControlDown() || currentMode == OperationMode.DRAW
+                        || currentMode == OperationMode.MOVE) {
+                    pendingZoomClicks += Integer.signum(e.getWheelRotation());
+                    zoomCenter = e.getPoint();
+                } else {
+                    pendingWheelClicks += Integer.signum(e.getWheelRotation());
                 }
+                frames.requestFrame();
             }
 
         };
@@ -290,6 +270,146 @@ public class DrawShapes extends JFrame {
         shapePanel.addMouseWheelListener(a); // Make sure this line is present
     }
 
+    /* Apply the input of the last frame
+     * Mouse drags and wheel clicks are collected between frames and applied
+     * here in one go, so a fast mouse can't flood the event thread.
+     */
+    private void applyPendingInput() {
+        if (pendingPanX != 0 || pendingPanY != 0) {
+            shapePanel.pan(pendingPanX, pendingPanY);
+            pendingPanX = 0;
+            pendingPanY = 0;
+        }
+        if (pendingZoomClicks != 0) {
+            // rolling the wheel away from the user zooms in
+            shapePanel.zoom(Math.pow(ZOOM_STEP, -pendingZoomClicks), zoomCenter);
+            pendingZoomClicks = 0;
+        }
+        if (pendingDrag != null) {
+            applyDrag(toScene(pendingDrag));
+            pendingDrag = null;
+        }
+        if (pendingWheelClicks != 0) {
+            applyWheel(pendingWheelClicks);
+            pendingWheelClicks = 0;
+        }
+    }
+
+    /* Find the shapes under a point on the panel
+     * With picking turned on this is only the topmost shape, read from the
+     * panel's picking buffer; otherwise it is every shape there.
+     */
+    private List<IShape> shapesAt(Point screen) {
+        if (shapePanel.isPickingEnabled()) {
+            IShape topmost = shapePanel.pick(screen);
+            if (topmost == null) {
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(topmost);
+        }
+        return scene.select(toScene(screen));
+    }
+
+    /* Turn a point on the panel into a point in the scene
+     */
+    private Point toScene(Point screen) {
+        return shapePanel.getViewport().toWorld(screen);
+    }
+
+    private void applyDrag(Point drag) {
+        if (currentMode == OperationMode.ROTATE && lastDragPoint != null) {
+            RotateEdit rotation = new RotateEdit();
+            for (IShape shape : scene.getSelectedShapes()) {
+                if (shape instanceof Rectangle) {
+                    Rectangle rect = (Rectangle) shape;
+                    Point center = rect.getAnchorPoint();
+
+                    // Calculate angles from center to mouse positions
+                    double lastAngle = Math.atan2(lastDragPoint.y - center.y, lastDragPoint.x - center.x);
+                    double currentAngle = Math.atan2(drag.y - center.y, drag.x - center.x);
+
+                    // Convert to degrees and get the difference
+                    double deltaAngle = Math.toDegrees(currentAngle - lastAngle);
+                    rotation.add(rect, deltaAngle);
+                }
+            }
+            if (!rotation.isEmpty()) {
+                scene.apply(rotation);
+            }
+            lastDragPoint = drag;
+        } else if (currentMode == OperationMode.MOVE && lastDragPoint != null && movingShapes != null) {
+            // Calculate movement delta
+            int dx = drag.x - lastDragPoint.x;
+            int dy = drag.y - lastDragPoint.y;
+
+            if (!movingShapes.isEmpty()) {
+                scene.apply(MoveEdit.sharing(movingShapes, dx, dy));
+            }
+
+            lastDragPoint = drag;
+        } else {
+            // Original selection rectangle behavior
+            scene.updateSelectRect(drag);
+        }
+    }
+
+    /* Apply wheel clicks
+     * clicks is the number of clicks towards the user minus the number
+     * away, each of which resizes or rotates the selection one step.
+     */
+    private void applyWheel(int clicks) {
+        if (currentMode == OperationMode.RESIZE) {
+            EventLog.debug("Resizing...");
+
+            // Make scaling more dramatic and inverse the direction
+            double scaleFactor = clicks > 0 ? 0.8 : 1.2;
+            int steps = Math.abs(clicks);
+
+            ResizeEdit resize = new ResizeEdit();
+            for (IShape shape : scene.getSelectedShapes()) {
+                EventLog.debug("Found selected shape");
+
+                if (shape instanceof Rectangle) {
+                    Rectangle rect = (Rectangle) shape;
+                    int newWidth = rect.getWidth();
+                    int newHeight = rect.getHeight();
+                    for (int i = 0; i < steps; i++) {
+                        newWidth = Math.max(20, (int) (newWidth * scaleFactor));
+                        newHeight = Math.max(20, (int) (newHeight * scaleFactor));
+                    }
+                    if (shape instanceof Square) {
+                        resize.add(rect, newWidth, newWidth);
+                    } else {
+                        resize.add(rect, newWidth, newHeight);
+                    }
+                } else if (shape instanceof Circle) {
+                    Circle circle = (Circle) shape;
+                    int newRadius = circle.getRadius();
+                    for (int i = 0; i < steps; i++) {
+                        newRadius = Math.max(10, (int) (newRadius * scaleFactor));
+                    }
+                    resize.add(circle, newRadius * 2, newRadius * 2);
+                }
+            }
+            if (!resize.isEmpty()) {
+                scene.apply(resize);
+            }
+        } else if (currentMode == OperationMode.ROTATE) {
+            // Rotate 15 degrees per wheel click
+            double rotationAmount = clicks * 15;
+
+            RotateEdit rotation = new RotateEdit();
+            for (IShape shape : scene.getSelectedShapes()) {
+                if (shape instanceof Rectangle) {
+                    rotation.add((Rectangle) shape, rotationAmount);
+                }
+            }
+            if (!rotation.isEmpty()) {
+                scene.apply(rotation);
+            }
+        }
+    }
+
     /* Menu initialization - I added many new menu items:
      * - New colors (green, yellow, black)
      * - Rectangle shape option
@@ -314,53 +434,7 @@ public class DrawShapes extends JFrame {
                 int returnValue = jfc.showOpenDialog(null);
 
                 if (returnValue == JFileChooser.APPROVE_OPTION) {
-                    File selectedFile = jfc.getSelectedFile();
-                    try {
-                        java.util.Scanner scanner = new java.util.Scanner(selectedFile);
-                        // Clear existing shapes
-                        scene = new Scene();
-
-                        while (scanner.hasNextLine()) {
-                            String line = scanner.nextLine().trim();
-                            if (line.isEmpty()) {
-                                continue;
-                            }
-
-                            String[] parts = line.split(" ");
-                            String shapeType = parts[0];
-
-                            switch (shapeType) {
-                                case "SQUARE":
-                                    int x = Integer.parseInt(parts[1]);
-                                    int y = Integer.parseInt(parts[2]);
-                                    int size = Integer.parseInt(parts[3]);
-                                    Color color = Util.stringToColor(parts[4]);
-                                    scene.addShape(new Square(color, x + size / 2, y + size / 2, size));
-                                    break;
-                                case "CIRCLE":
-                                    x = Integer.parseInt(parts[1]);
-                                    y = Integer.parseInt(parts[2]);
-                                    int diameter = Integer.parseInt(parts[3]);
-                                    color = Util.stringToColor(parts[4]);
-                                    scene.addShape(new Circle(color, new Point(x + diameter / 2, y + diameter / 2), diameter));
-                                    break;
-                                case "RECTANGLE":
-                                    x = Integer.parseInt(parts[1]);
-                                    y = Integer.parseInt(parts[2]);
-                                    int width = Integer.parseInt(parts[3]);
-                                    int height = Integer.parseInt(parts[4]);
-                                    color = Util.stringToColor(parts[5]);
-                                    scene.addShape(new Rectangle(new Point(x + width / 2, y + height / 2), width, height, color));
-                                    break;
-                            }
-                        }
-                        scanner.close();
-                        shapePanel.setScene(scene);
-                        repaint();
-                    } catch (Exception ex) {
-                        System.err.println("Error loading file: " + ex.getMessage());
-                        ex.printStackTrace();
-                    }
+                    loadScene(jfc.getSelectedFile());
                 }
             }
         });
@@ -375,20 +449,30 @@ public class DrawShapes extends JFrame {
 
                 if (returnValue == JFileChooser.APPROVE_OPTION) {
                     File selectedFile = jfc.getSelectedFile();
-                    try {
-                        // If file doesn't end with .txt, add it
-                        if (!selectedFile.getName().toLowerCase().endsWith(".txt")) {
-                            selectedFile = new File(selectedFile.getAbsolutePath() + ".txt");
-                        }
+                    // If file doesn't end with .txt or the binary extension, add .txt
+                    if (!selectedFile.getName().toLowerCase().endsWith(".txt")
+                            && !SceneFiles.isBinaryName(selectedFile.toPath())) {
+                        selectedFile = new File(selectedFile.getAbsolutePath() + ".txt");
+                    }
+                    saveScene(selectedFile);
+                }
+            }
+        });
+        // export an image of the whole scene
+        JMenuItem exportItem = new JMenuItem("Export Image");
+        fileMenu.add(exportItem);
+        exportItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JFileChooser jfc = new JFileChooser(".");
+                int returnValue = jfc.showSaveDialog(null);
 
-                        java.io.PrintWriter writer = new java.io.PrintWriter(selectedFile);
-                        writer.print(scene.toString());
-                        writer.close();
-                        System.out.println("Scene saved to " + selectedFile.getAbsolutePath());
-                    } catch (Exception ex) {
-                        System.err.println("Error saving file: " + ex.getMessage());
-                        ex.printStackTrace();
+                if (returnValue == JFileChooser.APPROVE_OPTION) {
+                    File selectedFile = jfc.getSelectedFile();
+                    if (!selectedFile.getName().toLowerCase().endsWith(".png")) {
+                        selectedFile = new File(selectedFile.getAbsolutePath() + ".png");
                     }
+                    exportImage(selectedFile);
                 }
             }
         });
@@ -415,13 +499,15 @@ public class DrawShapes extends JFrame {
         fileMenu.add(clearItem);
         clearItem.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                // Save current state before clearing
-                saveState();
-
-                // Clear the scene
-                scene = new Scene();
-                shapePanel.setScene(scene);
-                repaint();
+                // Remove everything as one edit, so clearing can be undone
+                List<IShape> allShapes = new ArrayList<>();
+                for (IShape s : scene) {
+                    allShapes.add(s);
+                }
+                if (!allShapes.isEmpty()) {
+                    scene.apply(new RemoveEdit(allShapes));
+                }
+                shapePanel.repaintDirty();
             }
         });
         fileMenu.addSeparator();
@@ -431,7 +517,8 @@ public class DrawShapes extends JFrame {
         itemExit.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 String text = e.getActionCommand();
-                System.out.println(text);
+                EventLog.debug(text);
+                autosave.close();
                 System.exit(0);
             }
         });
@@ -446,9 +533,11 @@ public class DrawShapes extends JFrame {
         redColorItem.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 String text = e.getActionCommand();
-                System.out.println(text);
-                // change the color instance variable to red
+                EventLog.debug(text);
+                // change the color instance variable to red,
+                // and recolor whatever is selected
                 color = Color.RED;
+                recolorSelectedShapes();
             }
         });
 
@@ -458,8 +547,9 @@ public class DrawShapes extends JFrame {
         blueColorItem.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 String text = e.getActionCommand();
-                System.out.println(text);
+                EventLog.debug(text);
                 color = Color.BLUE;
+                recolorSelectedShapes();
             }
         });
 
@@ -469,8 +559,9 @@ public class DrawShapes extends JFrame {
         greenColorItem.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 String text = e.getActionCommand();
-                System.out.println(text);
+                EventLog.debug(text);
                 color = Color.GREEN;
+                recolorSelectedShapes();
             }
         });
 
@@ -480,8 +571,9 @@ public class DrawShapes extends JFrame {
         yellowColorItem.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 String text = e.getActionCommand();
-                System.out.println(text);
+                EventLog.debug(text);
                 color = Color.YELLOW;
+                recolorSelectedShapes();
             }
         });
 
@@ -491,8 +583,9 @@ public class DrawShapes extends JFrame {
         blackColorItem.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 String text = e.getActionCommand();
-                System.out.println(text);
+                EventLog.debug(text);
                 color = Color.BLACK;
+                recolorSelectedShapes();
             }
         });
 
@@ -506,7 +599,7 @@ public class DrawShapes extends JFrame {
         squareItem.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                System.out.println("Square");
+                EventLog.debug("Square");
                 shapeType = ShapeType.SQUARE;
             }
         });
@@ -517,7 +610,7 @@ public class DrawShapes extends JFrame {
         circleItem.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                System.out.println("Circle");
+                EventLog.debug("Circle");
                 shapeType = ShapeType.CIRCLE;
             }
         });
@@ -528,7 +621,7 @@ public class DrawShapes extends JFrame {
         rectangleItem.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                System.out.println("Rectangle");
+                EventLog.debug("Rectangle");
                 shapeType = ShapeType.RECTANGLE;
             }
         });
@@ -542,7 +635,7 @@ public class DrawShapes extends JFrame {
         operationModeMenu.add(drawModeItem);
         drawModeItem.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                System.out.println("Switching to draw mode");
+                EventLog.debug("Switching to draw mode");
                 currentMode = OperationMode.DRAW;
                 deselectAllShapes(); // Deselect all shapes when switching to draw mode
             }
@@ -553,7 +646,7 @@ public class DrawShapes extends JFrame {
         operationModeMenu.add(selectItem);
         selectItem.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                System.out.println("Switching to move mode");
+                EventLog.debug("Switching to move mode");
                 currentMode = OperationMode.MOVE;
             }
         });
@@ -563,7 +656,7 @@ public class DrawShapes extends JFrame {
         operationModeMenu.add(resizeItem);
         resizeItem.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                System.out.println("Switching to resize mode");
+                EventLog.debug("Switching to resize mode");
                 currentMode = OperationMode.RESIZE;
             }
         });
@@ -573,22 +666,73 @@ public class DrawShapes extends JFrame {
         operationModeMenu.add(rotateItem);
         rotateItem.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                System.out.println("Switching to rotate mode");
+                EventLog.debug("Switching to rotate mode");
                 currentMode = OperationMode.ROTATE;
             }
         });
 
+        // view menu
+        JMenu viewMenu = new JMenu("View");
+        menuBar.add(viewMenu);
+
+        JMenuItem zoomInItem = new JMenuItem("Zoom In");
+        viewMenu.add(zoomInItem);
+        zoomInItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                shapePanel.zoom(ZOOM_STEP, panelCenter());
+            }
+        });
+
+        JMenuItem zoomOutItem = new JMenuItem("Zoom Out");
+        viewMenu.add(zoomOutItem);
+        zoomOutItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                shapePanel.zoom(1 / ZOOM_STEP, panelCenter());
+            }
+        });
+
+        JMenuItem actualSizeItem = new JMenuItem("Actual Size");
+        viewMenu.add(actualSizeItem);
+        actualSizeItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                shapePanel.resetView();
+            }
+        });
+        viewMenu.addSeparator();
+
+        // select only the topmost shape, found with the picking buffer
+        final JCheckBoxMenuItem pickingItem = new JCheckBoxMenuItem("Pick Topmost Shape");
+        viewMenu.add(pickingItem);
+        pickingItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                shapePanel.setPickingEnabled(pickingItem.isSelected());
+            }
+        });
+
+        // overlay with the render metrics of each frame
+        final JCheckBoxMenuItem metricsItem = new JCheckBoxMenuItem("Show Metrics");
+        viewMenu.add(metricsItem);
+        metricsItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                shapePanel.setShowMetrics(metricsItem.isSelected());
+            }
+        });
+
         // set the menu bar for this frame
         this.setJMenuBar(menuBar);
     }
 
+    private Point panelCenter() {
+        return new Point(shapePanel.getWidth() / 2, shapePanel.getHeight() / 2);
+    }
+
     /**
      * Initialize the keyboard listener.
      */
     private void initializeKeyListener() {
         shapePanel.addKeyListener(new KeyListener() {
             public void keyPressed(KeyEvent e) {
-                System.out.println("key typed: " + e.getKeyChar());
+                EventLog.debug("key typed: %s", e.getKeyChar());
             }
 
             public void keyReleased(KeyEvent e) {
@@ -611,117 +755,203 @@ public class DrawShapes extends JFrame {
 
     // Helper function I made to deselect all shapes
     private void deselectAllShapes() {
-        for (IShape s : scene) {
-            s.setSelected(false);
+        scene.clearSelection();
+        shapePanel.repaintDirty();
+    }
+
+    // Give the selected shapes the current color, as one undoable edit
+    private void recolorSelectedShapes() {
+        List<IShape> selected = scene.getSelectedShapes();
+        if (!selected.isEmpty()) {
+            scene.apply(new RecolorEdit(selected, color));
+            shapePanel.repaintDirty();
         }
-        repaint();
     }
 
-    /* Save current state for undo/redo
-     * I use this whenever something changes
-     * Like when moving shapes or rotating them
+    /* Load a scene file in the background
+     * The file is parsed on a worker thread into a brand new Scene, with a
+     * progress dialog that can cancel it, and only the finished scene is
+     * handed to the panel on the event thread.
      */
-    private void saveState() {
-        try {
-            Scene currentState = scene.clone();
-            if (undoStack.isEmpty() || !scenesEqual(currentState, undoStack.peek())) {
-                undoStack.push(currentState);
-                redoStack.clear();  // clear redo when new action happens
-                while (undoStack.size() > 20) {  // keep only last 20 states
-                    undoStack.remove(0);
+    private void loadScene(final File file) {
+        final ProgressMonitor monitor = new ProgressMonitor(this,
+                "Loading " + file.getName(), null, 0, 100);
+        final SwingWorker<Scene, Void> loader = new SwingWorker<Scene, Void>() {
+            @Override
+            protected Scene doInBackground() throws IOException {
+                long total = Math.max(1, file.length());
+                Scene loaded = new Scene();
+                try (IShapeReader reader = SceneFiles.open(file.toPath())) {
+                    int count = 0;
+                    IShape shape;
+                    while ((shape = reader.readShape()) != null) {
+                        loaded.addShape(shape);
+                        count++;
+                        if (count % 4096 == 0) {
+                            if (isCancelled()) {
+                                return null;
+                            }
+                            setProgress((int) Math.min(100, 100 * reader.getBytesRead() / total));
+                        }
+                    }
                 }
+                loaded.publish();
+                return loaded;
             }
-        } catch (CloneNotSupportedException e) {
-            e.printStackTrace();
-        }
-    }
 
-    // Add these methods to the DrawShapes class
-    private void undo() {
-        if (!undoStack.isEmpty()) {
-            try {
-                redoStack.push(scene.clone());
-                scene = undoStack.pop();
-                shapePanel.setScene(scene);
-                repaint();
-            } catch (CloneNotSupportedException e) {
-                e.printStackTrace();
+            @Override
+            protected void done() {
+                monitor.close();
+                if (isCancelled()) {
+                    EventLog.info("Loading cancelled");
+                    return;
+                }
+                try {
+                    scene = get();
+                    shapePanel.setScene(scene);
+                    if (!recovering) {
+                        // otherwise it is attached once the recovery is done
+                        autosave.attach(scene);
+                    }
+                } catch (InterruptedException | ExecutionException ex) {
+                    EventLog.error("Error loading file: %s", ex.getCause());
+                }
             }
-        }
-    }
-
-    private void redo() {
-        if (!redoStack.isEmpty()) {
-            try {
-                undoStack.push(scene.clone());
-                scene = redoStack.pop();
-                shapePanel.setScene(scene);
-                repaint();
-            } catch (CloneNotSupportedException e) {
-                e.printStackTrace();
+        };
+        loader.addPropertyChangeListener(new PropertyChangeListener() {
+            public void propertyChange(PropertyChangeEvent evt) {
+                if ("progress".equals(evt.getPropertyName())) {
+                    monitor.setProgress((Integer) evt.getNewValue());
+                }
+                if (monitor.isCanceled()) {
+                    loader.cancel(false);
+                }
             }
-        }
+        });
+        loader.execute();
     }
 
-    // Add this helper method to compare scenes
-    private boolean scenesEqual(Scene s1, Scene s2) {
-        if (s1 == s2) {
-            return true;
-        }
-        if (s1 == null || s2 == null) {
-            return false;
-        }
+    /* Autosave
+     * Unsaved work is journaled to ~/.drawshapes in the background. If the
+     * last run crashed, its scene is recovered first, and only then do we
+     * start saving, so the first checkpoint doesn't overwrite it. The user
+     * can draw or open a file while the recovery runs, so the recovered
+     * scene only replaces the current one without asking if nothing has
+     * been done to it since.
+     */
+    private void startAutosave() {
+        autosave = new Autosave(Paths.get(System.getProperty("user.home"), ".drawshapes"));
+        recovering = true;
+        final Scene original = scene;
+        final long originalVersion = scene.getVersion();
+        new SwingWorker<Scene, Void>() {
+            @Override
+            protected Scene doInBackground() throws IOException {
+                return autosave.recover();
+            }
 
-        Iterator<IShape> it1 = s1.iterator();
-        Iterator<IShape> it2 = s2.iterator();
+            @Override
+            protected void done() {
+                recovering = false;
+                try {
+                    Scene recovered = get();
+                    if (recovered != null) {
+                        boolean untouched = scene == original && scene.getVersion() == originalVersion;
+                        if (untouched || scene.size() == 0 || confirmRecovery(recovered)) {
+                            scene = recovered;
+                            shapePanel.setScene(scene);
+                            EventLog.info("Recovered unsaved work from the last session");
+                        } else {
+                            EventLog.info("Kept the current scene instead of the work from the last session");
+                        }
+                    }
+                } catch (InterruptedException | ExecutionException ex) {
+                    EventLog.error("Error recovering autosave: %s", ex.getCause());
+                }
+                autosave.attach(scene);
+            }
+        }.execute();
+    }
 
-        while (it1.hasNext() && it2.hasNext()) {
-            IShape shape1 = it1.next();
-            IShape shape2 = it2.next();
+    private boolean confirmRecovery(Scene recovered) {
+        int answer = JOptionPane.showConfirmDialog(this,
+                "Unsaved work from the last session was found (" + recovered.size() + " shapes).\n"
+                + "Replace the current scene with it?",
+                "Recover Unsaved Work", JOptionPane.YES_NO_OPTION);
+        return answer == JOptionPane.YES_OPTION;
+    }
 
-            if (!shapesEqual(shape1, shape2)) {
-                return false;
+    /* Save the scene in the background
+     * A snapshot of the scene is written on a worker thread, so the user can
+     * keep drawing while a big scene is being saved.
+     */
+    private void saveScene(final File file) {
+        final SceneSnapshot snapshot = scene.publish();
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                SceneFiles.save(snapshot, file.toPath());
+                return null;
             }
-        }
 
-        return !it1.hasNext() && !it2.hasNext();
+            @Override
+            protected void done() {
+                try {
+                    get();
+                    EventLog.info("Scene saved to %s", file.getAbsolutePath());
+                } catch (InterruptedException | ExecutionException ex) {
+                    EventLog.error("Error saving file: %s", ex.getCause());
+                }
+            }
+        }.execute();
     }
 
-    private boolean shapesEqual(IShape s1, IShape s2) {
-        if (s1 == s2) {
-            return true;
-        }
-        if (s1 == null || s2 == null) {
-            return false;
-        }
-        if (!s1.getClass().equals(s2.getClass())) {
-            return false;
-        }
+    /* Export the scene as a PNG image in the background
+     * A snapshot of the scene is rendered in tiles on worker threads, scaled
+     * down if need be so the image is at most MAX_EXPORT_SIZE pixels across.
+     */
+    private void exportImage(final File file) {
+        final SceneSnapshot snapshot = scene.publish();
+        new SwingWorker<Boolean, Void>() {
+            @Override
+            protected Boolean doInBackground() throws IOException {
+                BoundingBox bounds = TiledRenderer.getBounds(snapshot);
+                if (bounds == null) {
+                    return false;
+                }
+                int extent = Math.max(bounds.getRight() - bounds.getLeft(), bounds.getBottom() - bounds.getTop()) + 1;
+                double scale = Math.min(1.0, MAX_EXPORT_SIZE / (double) extent);
+                BufferedImage image = new TiledRenderer().render(snapshot, scale, Color.WHITE);
+                if (!ImageIO.write(image, "png", file)) {
+                    throw new IOException("No PNG writer available");
+                }
+                return true;
+            }
 
-        Point p1 = s1.getAnchorPoint();
-        Point p2 = s2.getAnchorPoint();
-        if (!p1.equals(p2)) {
-            return false;
-        }
+            @Override
+            protected void done() {
+                try {
+                    if (get()) {
+                        EventLog.info("Image exported to %s", file.getAbsolutePath());
+                    } else {
+                        EventLog.info("Nothing to export, the scene is empty");
+                    }
+                } catch (InterruptedException | ExecutionException ex) {
+                    EventLog.error("Error exporting image: %s", ex.getCause());
+                }
+            }
+        }.execute();
+    }
 
-        if (!s1.getColor().equals(s2.getColor())) {
-            return false;
-        }
-        if (s1.isSelected() != s2.isSelected()) {
-            return false;
+    private void undo() {
+        if (scene.undo()) {
+            shapePanel.repaintDirty();
         }
+    }
 
-        if (s1 instanceof Square) {
-            return ((Square) s1).getSize() == ((Square) s2).getSize();
-        } else if (s1 instanceof Circle) {
-            return ((Circle) s1).getRadius() == ((Circle) s2).getRadius();
-        } else if (s1 instanceof Rectangle) {
-            Rectangle r1 = (Rectangle) s1;
-            Rectangle r2 = (Rectangle) s2;
-            return r1.getWidth() == r2.getWidth()
-                    && r1.getHeight() == r2.getHeight()
-                    && r1.getRotation() == r2.getRotation();  // Add rotation check
+    private void redo() {
+        if (scene.redo()) {
+            shapePanel.repaintDirty();
         }
-        return false;
     }
 }
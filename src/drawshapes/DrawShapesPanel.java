@@ -1,12 +1,19 @@
 package drawshapes;
 
+import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
 import javax.swing.JPanel;
 
 /**
- * The Panel owned by the DrawShapes frame. This code doesn't need to be
- * changed.
+ * The Panel owned by the DrawShapes frame.
+ *
+ * Shows the scene through a Viewport that can be zoomed and panned. The
+ * panel can be any size; the width and height it is made with are only
+ * its preferred size.
  *
  * @author jspacco
  *
@@ -14,9 +21,28 @@ import javax.swing.JPanel;
 @SuppressWarnings("serial")
 public class DrawShapesPanel extends JPanel {
 
+    // where the metrics overlay goes, in the top left corner
+    private static final int HUD_X = 8;
+    private static final int HUD_Y = 8;
+    private static final int HUD_WIDTH = 300;
+    private static final int HUD_LINE = 14;
+    private static final int HUD_LINES = 10;
+    private static final Color HUD_BACKGROUND = new Color(0, 0, 0, 160);
+
     private int width;
     private int height;
     private Scene scene;
+    // the unselected shapes, drawn once and patched where they change
+    private BufferedImage staticLayer;
+    // the view the static layer was drawn for
+    private double layerScale;
+    private double layerTranslateX;
+    private double layerTranslateY;
+    private final Viewport viewport = new Viewport();
+    // null unless picking by the color buffer is turned on
+    private PickingBuffer picking;
+    private final RenderMetrics metrics = new RenderMetrics();
+    private boolean showMetrics;
 
     public DrawShapesPanel(int width, int height, Scene scene) {
         this.width = width;
@@ -28,20 +54,242 @@ public class DrawShapesPanel extends JPanel {
      * @see javax.swing.JComponent#paint(java.awt.Graphics)
      */
     public void paint(Graphics g) {
-        scene.draw(g);
+        if (getWidth() <= 0 || getHeight() <= 0) {
+            return;
+        }
+        metrics.beginPaint(scene);
+        updateStaticLayer();
+        // the cached layer is opaque, so copying the part under the clip
+        // also clears it; the selection goes on top
+        g.drawImage(staticLayer, 0, 0, null);
+        Graphics2D world = (Graphics2D) g.create();
+        try {
+            viewport.applyTo(world);
+            scene.drawSelected(world);
+        } finally {
+            world.dispose();
+        }
+        metrics.endPaint(scene);
+        if (showMetrics) {
+            drawMetrics(g);
+        }
     }
 
-    /* (non-Javadoc)
-     * @see javax.swing.JComponent#getMinimumSize()
+    /**
+     * Draw the metrics of the last frame over the scene. This comes after
+     * the frame was measured, so it doesn't count towards its own numbers.
      */
-    public Dimension getMinimumSize() {
-        return new Dimension(width, height);
+    private void drawMetrics(Graphics g) {
+        g.setColor(HUD_BACKGROUND);
+        g.fillRect(HUD_X, HUD_Y, HUD_WIDTH, HUD_LINES * HUD_LINE + 8);
+        g.setColor(Color.WHITE);
+        int x = HUD_X + 6;
+        int y = HUD_Y + HUD_LINE;
+        g.drawString("frame " + metrics.getFrameCount() + ", lost " + metrics.getLostFrames(), x, y);
+        y += HUD_LINE;
+        g.drawString("paint " + metrics.getLastPaintMicros() + " us (p50 " + metrics.getPaintMicrosP50()
+                + ", p99 " + metrics.getPaintMicrosP99() + ")", x, y);
+        y += HUD_LINE;
+        g.drawString("shapes " + metrics.getSceneSize() + ", drawn " + metrics.getLastShapesDrawn()
+                + ", culled " + metrics.getLastShapesCulled(), x, y);
+        y += HUD_LINE;
+        g.drawString(String.format("occluded %d, overdraw %.1fx (%.1fx unculled)", metrics.getLastShapesOccluded(),
+                metrics.getLastOverdrawRatio(), metrics.getLastOverdrawRatioWithHidden()), x, y);
+        y += HUD_LINE;
+        g.drawString("zoom " + Math.round(viewport.getScale() * 100) + "%, as pixels "
+                + metrics.getLastShapesSimplified(), x, y);
+        y += HUD_LINE;
+        g.drawString("color changes " + metrics.getLastColorChanges() + ", transform saves "
+                + metrics.getLastTransformSaves(), x, y);
+        y += HUD_LINE;
+        g.drawString("sprites hit " + metrics.getSpriteHits() + ", missed " + metrics.getSpriteMisses()
+                + ", " + metrics.getSpriteCacheBytes() / 1024 + " KB", x, y);
+        y += HUD_LINE;
+        g.drawString("undo history " + metrics.getUndoHistoryBytes() / 1024 + " KB", x, y);
+        y += HUD_LINE;
+        g.drawString("input alloc " + metrics.getLastInputAllocatedBytes() + " B (p99 "
+                + metrics.getInputAllocatedBytesP99() + ")", x, y);
+        y += HUD_LINE;
+        g.drawString("event log dropped " + EventLog.getDropped(), x, y);
+    }
+
+    public RenderMetrics getMetrics() {
+        return metrics;
+    }
+
+    public boolean isShowingMetrics() {
+        return showMetrics;
+    }
+
+    /**
+     * Turn the metrics overlay on or off.
+     */
+    public void setShowMetrics(boolean show) {
+        this.showMetrics = show;
+        repaint();
+    }
+
+    /**
+     * Bring the cached image of unselected shapes up to date, redrawing only
+     * the regions where unselected shapes changed. A pan scrolls the image
+     * and draws only the strip that came into view; a zoom redraws it all.
+     */
+    private void updateStaticLayer() {
+        int w = getWidth();
+        int h = getHeight();
+        if (staticLayer == null || staticLayer.getWidth() != w || staticLayer.getHeight() != h) {
+            staticLayer = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            redrawWholeStaticLayer();
+            return;
+        }
+        if (!viewport.isPannedFrom(layerScale, layerTranslateX, layerTranslateY)) {
+            redrawWholeStaticLayer();
+            return;
+        }
+        int dx = (int) (viewport.getTranslateX() - layerTranslateX);
+        int dy = (int) (viewport.getTranslateY() - layerTranslateY);
+        if (dx != 0 || dy != 0) {
+            scrollStaticLayer(dx, dy);
+        }
+        for (BoundingBox region : scene.takeStaticDirtyRegions()) {
+            int[] r = viewport.toScreen(region);
+            redrawStaticLayer(r[0], r[1], r[2], r[3]);
+        }
+    }
+
+    private void redrawWholeStaticLayer() {
+        scene.takeStaticDirtyRegions();
+        rememberLayerView();
+        redrawStaticLayer(0, 0, staticLayer.getWidth(), staticLayer.getHeight());
+    }
+
+    /**
+     * Move the cached image by dx, dy pixels and draw the strips along the
+     * edges that the move uncovered.
+     */
+    private void scrollStaticLayer(int dx, int dy) {
+        int w = staticLayer.getWidth();
+        int h = staticLayer.getHeight();
+        rememberLayerView();
+        if (Math.abs(dx) >= w || Math.abs(dy) >= h) {
+            redrawStaticLayer(0, 0, w, h);
+            return;
+        }
+        Graphics2D g = staticLayer.createGraphics();
+        try {
+            g.copyArea(0, 0, w, h, dx, dy);
+        } finally {
+            g.dispose();
+        }
+        if (dx > 0) {
+            redrawStaticLayer(0, 0, dx, h);
+        } else if (dx < 0) {
+            redrawStaticLayer(w + dx, 0, -dx, h);
+        }
+        if (dy > 0) {
+            redrawStaticLayer(0, 0, w, dy);
+        } else if (dy < 0) {
+            redrawStaticLayer(0, h + dy, w, -dy);
+        }
+    }
+
+    private void rememberLayerView() {
+        layerScale = viewport.getScale();
+        layerTranslateX = viewport.getTranslateX();
+        layerTranslateY = viewport.getTranslateY();
+    }
+
+    /**
+     * Redraw part of the cached image, given in pixels.
+     */
+    private void redrawStaticLayer(int x, int y, int w, int h) {
+        Graphics2D g = staticLayer.createGraphics();
+        try {
+            g.setClip(x, y, w, h);
+            g.setColor(getBackground());
+            g.fillRect(x, y, w, h);
+            viewport.applyTo(g);
+            scene.drawUnselected(g);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    /**
+     * Repaint only the parts of the scene that changed since the last
+     * repaint.
+     */
+    public void repaintDirty() {
+        for (BoundingBox region : scene.takeDirtyRegions()) {
+            int[] r = viewport.toScreen(region);
+            repaint(r[0], r[1], r[2], r[3]);
+        }
+        if (showMetrics) {
+            // the numbers change every frame
+            repaint(HUD_X, HUD_Y, HUD_WIDTH, HUD_LINES * HUD_LINE + 8);
+        }
+    }
+
+    public Viewport getViewport() {
+        return viewport;
+    }
+
+    public boolean isPickingEnabled() {
+        return picking != null;
+    }
+
+    /**
+     * Turn picking with a PickingBuffer on or off. The buffer takes an
+     * int per pixel of the panel, so it is off until asked for.
+     */
+    public void setPickingEnabled(boolean enabled) {
+        if (!enabled) {
+            picking = null;
+        } else if (picking == null) {
+            picking = new PickingBuffer(scene, viewport);
+        }
+    }
+
+    /**
+     * Return the topmost shape drawn at the given pixel of the panel, or
+     * null if there is none there. Picking must be turned on.
+     */
+    public IShape pick(Point screen) {
+        if (picking == null) {
+            throw new IllegalStateException("Picking is turned off");
+        }
+        return picking.pick(screen, getWidth(), getHeight());
+    }
+
+    /**
+     * Zoom by the given factor, keeping the scene under the given pixel of
+     * the panel in place.
+     */
+    public void zoom(double factor, Point center) {
+        viewport.zoom(factor, center.x, center.y);
+        repaint();
+    }
+
+    /**
+     * Move the view by the given number of pixels.
+     */
+    public void pan(int dx, int dy) {
+        viewport.pan(dx, dy);
+        repaint();
+    }
+
+    /**
+     * Show the scene at its actual size again.
+     */
+    public void resetView() {
+        viewport.reset();
+        repaint();
     }
 
     /* (non-Javadoc)
-     * @see javax.swing.JComponent#getMaximumSize()
+     * @see javax.swing.JComponent#getMinimumSize()
      */
-    public Dimension getMaximumSize() {
+    public Dimension getMinimumSize() {
         return new Dimension(width, height);
     }
 
@@ -61,5 +309,12 @@ public class DrawShapesPanel extends JPanel {
 
     public void setScene(Scene scene) {
         this.scene = scene;
+        if (picking != null) {
+            picking = new PickingBuffer(scene, viewport);
+        }
+        scene.takeDirtyRegions();
+        // a different scene, so nothing in the cache is any good
+        staticLayer = null;
+        repaint();
     }
 }
@@ -0,0 +1,34 @@
+package drawshapes;
+
+/**
+ * A single undoable change to a scene.
+ * 
+ * Instead of keeping a copy of the whole scene for every step of the
+ * undo history, each edit only remembers the shapes it touched and
+ * how they changed, so it can apply itself again or take itself back.
+ */
+public interface Edit
+{
+    /**
+     * Apply this change to the given scene. This is also used to
+     * perform the edit the first time.
+     * 
+     * @param scene
+     */
+    public void redo(Scene scene);
+    /**
+     * Take this change back, restoring the scene to the state it was in
+     * before redo() was called.
+     * 
+     * @param scene
+     */
+    public void undo(Scene scene);
+    /**
+     * Return a rough estimate of how many bytes of memory this edit keeps
+     * alive, including shapes that are only kept for it, such as removed
+     * ones. Used to report how much memory the undo history takes.
+     * 
+     * @return
+     */
+    public long estimateBytes();
+}
@@ -0,0 +1,306 @@
+package drawshapes;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A leveled log that is cheap enough to call from the Swing event thread.
+ *
+ * Logging a message only fills in a preallocated slot of a ring buffer; a
+ * background thread formats the messages and prints them, and sleeps
+ * while there are none until a message wakes it up. A message for a
+ * level that is turned off costs one comparison, and the overloads that
+ * take longs don't box their arguments, so most calls allocate nothing.
+ * If the ring is full the message is dropped and counted rather than
+ * making the caller wait.
+ *
+ * Messages use String.format patterns. The level to log at comes from the
+ * system property drawshapes.log (DEBUG, INFO, WARN or ERROR) and is INFO
+ * by default, or if the property names no level.
+ */
+public final class EventLog {
+
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    private static final int CAPACITY = 4096;
+    private static final int MASK = CAPACITY - 1;
+    // the argument of an error logged without an exception
+    private static final String NO_EXCEPTION = "unknown cause";
+
+    private static final Slot[] slots = new Slot[CAPACITY];
+    // next position to write; claimed by compare-and-set
+    private static final AtomicLong tail = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static volatile Level threshold = Level.INFO;
+    private static volatile PrintStream out = System.out;
+    private static volatile Thread drainer;
+    // set by the drain thread before it parks, so writers know to wake it
+    private static volatile boolean drainerParked;
+
+    // only used while holding the lock in drain()
+    private static long head;
+    private static long reportedDropped;
+    private static final SimpleDateFormat clock = new SimpleDateFormat("HH:mm:ss.SSS");
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            slots[i] = new Slot(i);
+        }
+        String level = System.getProperty("drawshapes.log");
+        if (level != null) {
+            try {
+                threshold = Level.valueOf(level.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                warn("Unknown log level %s in drawshapes.log, logging at INFO", level);
+            }
+        }
+    }
+
+    private EventLog() {
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(threshold) >= 0;
+    }
+
+    public static void setLevel(Level level) {
+        threshold = level;
+    }
+
+    /**
+     * Send the messages to the given stream instead of System.out.
+     */
+    public static void setOutput(PrintStream stream) {
+        out = stream;
+    }
+
+    /**
+     * Return how many messages were dropped because the ring was full.
+     */
+    public static long getDropped() {
+        return dropped.get();
+    }
+
+    public static void debug(String format) {
+        if (isEnabled(Level.DEBUG)) {
+            log(Level.DEBUG, format, null, 0, 0, 0);
+        }
+    }
+
+    public static void debug(String format, long a) {
+        if (isEnabled(Level.DEBUG)) {
+            log(Level.DEBUG, format, null, 1, a, 0);
+        }
+    }
+
+    public static void debug(String format, long a, long b) {
+        if (isEnabled(Level.DEBUG)) {
+            log(Level.DEBUG, format, null, 2, a, b);
+        }
+    }
+
+    /**
+     * Log a character, such as a typed key. Without this overload a char
+     * would be widened to a long and printed as a number.
+     */
+    public static void debug(String format, char c) {
+        if (isEnabled(Level.DEBUG)) {
+            // boxing ASCII characters uses Character's cache
+            log(Level.DEBUG, format, Character.valueOf(c), 0, 0, 0);
+        }
+    }
+
+    public static void debug(String format, Object arg) {
+        if (isEnabled(Level.DEBUG)) {
+            log(Level.DEBUG, format, arg, 0, 0, 0);
+        }
+    }
+
+    public static void info(String format) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, format, null, 0, 0, 0);
+        }
+    }
+
+    public static void info(String format, Object arg) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, format, arg, 0, 0, 0);
+        }
+    }
+
+    public static void warn(String format, Object arg) {
+        if (isEnabled(Level.WARN)) {
+            log(Level.WARN, format, arg, 0, 0, 0);
+        }
+    }
+
+    /**
+     * Log an error. The stack trace of the exception is printed after the
+     * message, which gets the exception's message as its argument, or its
+     * class name if it has no message. The exception may be null, as
+     * getCause() often is.
+     */
+    public static void error(String format, Throwable t) {
+        if (isEnabled(Level.ERROR)) {
+            log(Level.ERROR, format, t != null ? t : NO_EXCEPTION, 0, 0, 0);
+        }
+    }
+
+    /**
+     * Put a message in the ring. This is a bounded multi-producer queue:
+     * each slot has a sequence number saying whether it is free for the
+     * position being claimed or holds a message for the drain thread.
+     */
+    private static void log(Level level, String format, Object arg, int longs, long a, long b) {
+        long position;
+        Slot slot;
+        while (true) {
+            position = tail.get();
+            slot = slots[(int) (position & MASK)];
+            long sequence = slot.sequence;
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (sequence < position) {
+                // the drain thread hasn't caught up
+                dropped.incrementAndGet();
+                return;
+            }
+            // another thread claimed the position first; try the next one
+        }
+        slot.level = level;
+        slot.time = System.currentTimeMillis();
+        slot.format = format;
+        slot.arg = arg;
+        slot.longs = longs;
+        slot.a = a;
+        slot.b = b;
+        // hand the slot to the drain thread
+        slot.sequence = position + 1;
+        Thread thread = drainer;
+        if (thread == null) {
+            startDrainer();
+        } else if (drainerParked) {
+            // the ring was empty; the drain thread set the flag before it
+            // last looked, so either it sees this message or we see the flag
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private static void startDrainer() {
+        if (drainer != null) {
+            return;
+        }
+        synchronized (EventLog.class) {
+            if (drainer != null) {
+                return;
+            }
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    while (true) {
+                        if (drain()) {
+                            continue;
+                        }
+                        drainerParked = true;
+                        // look again, for a message written before the flag
+                        // was set, whose writer didn't know to wake us
+                        if (isEmpty()) {
+                            LockSupport.park();
+                        }
+                        drainerParked = false;
+                    }
+                }
+            }, "event-log");
+            thread.setDaemon(true);
+            thread.start();
+            // print what is left when the program exits
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                public void run() {
+                    synchronized (EventLog.class) {
+                        drain();
+                    }
+                }
+            }));
+            drainer = thread;
+        }
+    }
+
+    /**
+     * Print every message in the ring.
+     *
+     * @return false if there were none
+     */
+    private static synchronized boolean drain() {
+        boolean any = false;
+        PrintStream stream = out;
+        while (true) {
+            Slot slot = slots[(int) (head & MASK)];
+            if (slot.sequence != head + 1) {
+                break;
+            }
+            stream.println(format(slot));
+            if (slot.arg instanceof Throwable) {
+                ((Throwable) slot.arg).printStackTrace(stream);
+            }
+            slot.format = null;
+            slot.arg = null;
+            // free the slot for the writer one lap ahead
+            slot.sequence = head + CAPACITY;
+            head++;
+            any = true;
+        }
+        long lost = dropped.get();
+        if (lost != reportedDropped) {
+            stream.println("(" + (lost - reportedDropped) + " log messages dropped)");
+            reportedDropped = lost;
+        }
+        if (any) {
+            stream.flush();
+        }
+        return any;
+    }
+
+    private static synchronized boolean isEmpty() {
+        return slots[(int) (head & MASK)].sequence != head + 1;
+    }
+
+    private static String format(Slot slot) {
+        String message;
+        // a null pattern would throw here and stop the drain thread
+        String pattern = slot.format != null ? slot.format : "%s";
+        if (slot.longs == 2) {
+            message = String.format(pattern, slot.a, slot.b);
+        } else if (slot.longs == 1) {
+            message = String.format(pattern, slot.a);
+        } else if (slot.arg instanceof Throwable) {
+            Throwable t = (Throwable) slot.arg;
+            message = String.format(pattern, t.getMessage() != null ? t.getMessage() : t.getClass().getName());
+        } else if (slot.arg != null) {
+            message = String.format(pattern, slot.arg);
+        } else {
+            message = String.valueOf(slot.format);
+        }
+        return clock.format(new Date(slot.time)) + " " + slot.level + " " + message;
+    }
+
+    private static class Slot {
+        volatile long sequence;
+        Level level;
+        long time;
+        String format;
+        Object arg;
+        int longs;
+        long a;
+        long b;
+
+        Slot(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package drawshapes;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.Timer;
+
+/**
+ * Runs a frame task at most once per display frame, on the Swing event
+ * thread.
+ *
+ * Input handlers call requestFrame() as often as they like, typically once
+ * per mouse event, and only record what happened. The task then applies
+ * everything recorded since the last frame in one go and repaints. The
+ * timer only runs while frames are being requested, so an idle window
+ * doesn't wake up.
+ *
+ * A frame is counted as lost when the task runs later than one frame
+ * period after the previous one, because the event thread was busy.
+ */
+public class FrameScheduler {
+
+    public static final int DEFAULT_FPS = 60;
+
+    private final Runnable frame;
+    private final Timer timer;
+    private int targetFps;
+    private long periodNanos;
+    private boolean requested;
+    // when the previous frame of the current burst ran, or 0 when idle
+    private long lastFrameNanos;
+    private long framesRun;
+    private long framesLost;
+
+    public FrameScheduler(int targetFps, Runnable frame) {
+        this.frame = frame;
+        this.timer = new Timer(0, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                tick();
+            }
+        });
+        // run the first frame of a burst as soon as the events ahead of it
+        // in the queue are handled
+        timer.setInitialDelay(0);
+        setTargetFps(targetFps);
+    }
+
+    /**
+     * Ask for the frame task to run at the next frame.
+     */
+    public void requestFrame() {
+        requested = true;
+        if (!timer.isRunning()) {
+            timer.start();
+        }
+    }
+
+    /**
+     * Run the frame task right away if a frame was requested, rather than
+     * waiting for the timer. Used when the input that asked for the frame
+     * is about to end, such as on a mouse release.
+     */
+    public void flush() {
+        if (requested) {
+            runFrame(System.nanoTime());
+        }
+    }
+
+    private void tick() {
+        if (!requested) {
+            // nothing happened for a whole frame
+            timer.stop();
+            lastFrameNanos = 0;
+            return;
+        }
+        runFrame(System.nanoTime());
+    }
+
+    private void runFrame(long now) {
+        if (lastFrameNanos != 0) {
+            long elapsed = now - lastFrameNanos;
+            if (elapsed > periodNanos + periodNanos / 2) {
+                framesLost += (elapsed - periodNanos / 2) / periodNanos;
+            }
+        }
+        lastFrameNanos = now;
+        requested = false;
+        framesRun++;
+        frame.run();
+    }
+
+    public int getTargetFps() {
+        return targetFps;
+    }
+
+    public void setTargetFps(int fps) {
+        if (fps <= 0) {
+            throw new IllegalArgumentException("Frame rate must be positive: " + fps);
+        }
+        this.targetFps = fps;
+        this.periodNanos = 1000000000L / fps;
+        timer.setDelay(Math.max(1, 1000 / fps));
+    }
+
+    /**
+     * Return how many frames the task has run.
+     */
+    public long getFramesRun() {
+        return framesRun;
+    }
+
+    /**
+     * Return how many frames were missed because a frame ran late.
+     */
+    public long getFramesLost() {
+        return framesLost;
+    }
+}
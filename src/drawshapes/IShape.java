@@ -24,6 +24,14 @@ public interface IShape
      * @param g the Graphics object from the Java Swing GUI framework
      */
     public void draw(Graphics g);
+    /**
+     * Fill exactly the pixels draw() would paint, in the current color of
+     * the Graphics object rather than the shape's own. Used to draw a
+     * shape in a color that stands for it, as the picking buffer does.
+     * 
+     * @param g the Graphics object, already set to the color to use
+     */
+    public void fill(Graphics g);
     /**
      * Does this shape intersect any part of the other shape?
      * 
@@ -80,8 +88,35 @@ public interface IShape
      * is the max/min X and Y coordinates.
      * 
      * The bounding box is used to check for intersections.
+     * The shape updates it in place when it moves, so copy it
+     * to remember where the shape was.
      * 
      * @return
      */
     public BoundingBox getBoundingBox();
+    
+    /**
+     * Set the listener to notify when this shape moves or changes size.
+     * A shape has at most one listener, normally the Scene it belongs to.
+     * 
+     * @param listener the listener, or null to stop notifications
+     */
+    public void setListener(IShapeListener listener);
+    
+    /**
+     * Return a 64-bit hash of everything that is saved about this shape:
+     * its type, position, size, rotation, color and selected status. Two
+     * shapes that look the same have the same hash.
+     * 
+     * @return
+     */
+    public long contentHash();
+    
+    /**
+     * Return a copy of this shape with the same type, position, size,
+     * rotation, color and selected status, but no listener.
+     * 
+     * @return
+     */
+    public IShape copy();
 }
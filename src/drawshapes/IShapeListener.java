@@ -0,0 +1,46 @@
+package drawshapes;
+
+/**
+ * Callback for objects that need to know when a shape changes.
+ * 
+ * The Scene registers itself as the listener of every shape it owns
+ * so that it can keep its spatial index up to date when shapes are
+ * moved or resized, and so it knows which parts of the canvas need to
+ * be repainted.
+ */
+public interface IShapeListener
+{
+    /**
+     * The bounding box of the given shape has changed.
+     * 
+     * @param shape the shape that changed
+     * @param oldBounds the bounding box the shape had before the change.
+     * The shape reuses this object, so copy it to keep it.
+     */
+    public void boundsChanged(IShape shape, BoundingBox oldBounds);
+    
+    /**
+     * The shape looks different but covers the same area, because its
+     * color changed.
+     * 
+     * @param shape the shape that changed
+     */
+    public void appearanceChanged(IShape shape);
+    
+    /**
+     * The shape was selected or deselected.
+     * 
+     * @param shape the shape that changed
+     */
+    public void selectedChanged(IShape shape);
+    
+    /**
+     * Something that is saved about the shape changed, so its content hash
+     * did. Called after any of the callbacks above, and also for changes
+     * that don't move the shape, like turning a square a quarter turn.
+     * 
+     * @param shape the shape that changed
+     * @param oldHash the content hash the shape had before the change
+     */
+    public void contentChanged(IShape shape, long oldHash);
+}
@@ -0,0 +1,27 @@
+package drawshapes;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the shapes of a saved scene one at a time, so the caller can
+ * report progress and stop early.
+ */
+public interface IShapeReader extends Closeable
+{
+    /**
+     * Read the next shape.
+     * 
+     * @return the shape, or null at the end of the input
+     * @throws IOException if the input can't be read or is malformed
+     */
+    public IShape readShape() throws IOException;
+    
+    /**
+     * Return how many bytes of the input have been consumed so far, for
+     * progress reporting.
+     * 
+     * @return
+     */
+    public long getBytesRead();
+}
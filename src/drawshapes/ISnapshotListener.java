@@ -0,0 +1,17 @@
+package drawshapes;
+
+/**
+ * Callback for objects that need to know every time a scene publishes a
+ * new snapshot, such as the autosave journal.
+ */
+public interface ISnapshotListener
+{
+    /**
+     * The scene published a new snapshot. Called on the thread that edits
+     * the scene, so this should return quickly and leave any real work to
+     * another thread.
+     * 
+     * @param snapshot the new snapshot
+     */
+    public void snapshotPublished(SceneSnapshot snapshot);
+}
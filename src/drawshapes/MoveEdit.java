@@ -0,0 +1,94 @@
+package drawshapes;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Moves a group of shapes by the same offset.
+ */
+public class MoveEdit implements Edit {
+
+    private final List<IShape> shapes;
+    private int dx;
+    private int dy;
+
+    public MoveEdit(Collection<IShape> shapes, int dx, int dy) {
+        this(new ArrayList<>(shapes), dx, dy);
+    }
+
+    private MoveEdit(List<IShape> shapes, int dx, int dy) {
+        this.shapes = shapes;
+        this.dx = dx;
+        this.dy = dy;
+    }
+
+    /**
+     * Make a move of the shapes in the given list, which the edit keeps
+     * rather than copies, so that a drag making one move per frame doesn't
+     * copy the selection every time. The list must not change afterwards.
+     */
+    static MoveEdit sharing(List<IShape> shapes, int dx, int dy) {
+        return new MoveEdit(shapes, dx, dy);
+    }
+
+    @Override
+    public void redo(Scene scene) {
+        moveBy(dx, dy);
+    }
+
+    @Override
+    public void undo(Scene scene) {
+        moveBy(-dx, -dy);
+    }
+
+    /**
+     * Fold a following move of the same shapes into this one. This edit is
+     * changed in place rather than copied, so a long drag doesn't copy the
+     * list of shapes on every mouse event.
+     * 
+     * @param next
+     * @return this edit, now doing both moves, or null if the shapes differ
+     */
+    MoveEdit merge(MoveEdit next) {
+        if (!sameShapes(next.shapes)) {
+            return null;
+        }
+        dx += next.dx;
+        dy += next.dy;
+        return this;
+    }
+
+    private boolean sameShapes(List<IShape> other) {
+        if (shapes == other) {
+            return true;
+        }
+        if (shapes.size() != other.size()) {
+            return false;
+        }
+        for (int i = 0; i < shapes.size(); i++) {
+            if (shapes.get(i) != other.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void moveBy(int x, int y) {
+        for (int i = 0; i < shapes.size(); i++) {
+            IShape s = shapes.get(i);
+            if (s instanceof AbstractShape) {
+                ((AbstractShape) s).translate(x, y);
+            } else {
+                Point anchor = s.getAnchorPoint();
+                s.setAnchorPoint(new Point(anchor.x + x, anchor.y + y));
+            }
+        }
+    }
+
+    @Override
+    public long estimateBytes() {
+        return 2 * UndoHistory.OBJECT_BYTES + 8 + shapes.size() * UndoHistory.REFERENCE_BYTES;
+    }
+}
@@ -0,0 +1,284 @@
+package drawshapes;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable map from long keys to items, kept in key order, that shares
+ * structure with the maps it was made from. Besides looking items up by
+ * key, it can be read as a list: the item at a position, and the position
+ * of a key.
+ *
+ * The items are stored in a weight-balanced binary tree in which every
+ * node knows how many items are under it. Adding, replacing or removing an
+ * item copies only the nodes on the path to it, O(log n) of them, and the
+ * new map shares everything else with the old one; the counts find a
+ * position in O(log n) as well. Old versions stay valid and unchanged, so
+ * they can be handed to other threads without locking.
+ */
+final class PersistentRankTree<T> implements Iterable<T> {
+
+    // the balance parameters of Adams' trees, as used by Haskell's
+    // Data.Map, which keep the tree balanced one insertion or deletion at
+    // a time
+    private static final int DELTA = 3;
+    private static final int RATIO = 2;
+
+    private static final PersistentRankTree<Object> EMPTY = new PersistentRankTree<Object>(null);
+
+    private final Node root;
+
+    private PersistentRankTree(Node root) {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> PersistentRankTree<T> empty() {
+        return (PersistentRankTree<T>) EMPTY;
+    }
+
+    /**
+     * Build a map holding the given items under the given keys, which must
+     * go up, in linear time.
+     */
+    static <T> PersistentRankTree<T> of(long[] keys, Object[] items, int count) {
+        if (count == 0) {
+            return empty();
+        }
+        return new PersistentRankTree<T>(build(keys, items, 0, count));
+    }
+
+    int size() {
+        return size(root);
+    }
+
+    /**
+     * Return the item at the given position in key order.
+     */
+    @SuppressWarnings("unchecked")
+    T get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + size());
+        }
+        Node node = root;
+        while (true) {
+            int left = size(node.left);
+            if (index < left) {
+                node = node.left;
+            } else if (index > left) {
+                index -= left + 1;
+                node = node.right;
+            } else {
+                return (T) node.item;
+            }
+        }
+    }
+
+    /**
+     * Return how many items have a smaller key than the given one, which
+     * is the position of the key's item if there is one.
+     */
+    int rank(long key) {
+        int rank = 0;
+        Node node = root;
+        while (node != null) {
+            if (key < node.key) {
+                node = node.left;
+            } else if (key > node.key) {
+                rank += size(node.left) + 1;
+                node = node.right;
+            } else {
+                return rank + size(node.left);
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Return a map with the given item under the key, in place of any item
+     * that was there.
+     */
+    PersistentRankTree<T> put(long key, T item) {
+        return new PersistentRankTree<T>(put(root, key, item));
+    }
+
+    /**
+     * Return a map without the item under the key.
+     */
+    PersistentRankTree<T> remove(long key) {
+        return new PersistentRankTree<T>(remove(root, key));
+    }
+
+    /**
+     * Copy the keys and items into the given arrays, in key order.
+     */
+    void copyTo(long[] keys, Object[] items) {
+        copyTo(root, keys, items, 0);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            // the nodes whose item and right subtree are still to come
+            private final List<Node> path = new ArrayList<Node>();
+
+            {
+                pushLeft(root);
+            }
+
+            private void pushLeft(Node node) {
+                for (; node != null; node = node.left) {
+                    path.add(node);
+                }
+            }
+
+            public boolean hasNext() {
+                return !path.isEmpty();
+            }
+
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (path.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                Node node = path.remove(path.size() - 1);
+                pushLeft(node.right);
+                return (T) node.item;
+            }
+        };
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static Node build(long[] keys, Object[] items, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        int middle = (from + to) >>> 1;
+        return new Node(keys[middle], items[middle], build(keys, items, from, middle), build(keys, items, middle + 1, to));
+    }
+
+    private static int copyTo(Node node, long[] keys, Object[] items, int at) {
+        if (node == null) {
+            return at;
+        }
+        at = copyTo(node.left, keys, items, at);
+        keys[at] = node.key;
+        items[at] = node.item;
+        return copyTo(node.right, keys, items, at + 1);
+    }
+
+    private static Node put(Node node, long key, Object item) {
+        if (node == null) {
+            return new Node(key, item, null, null);
+        }
+        if (key < node.key) {
+            return balance(node.key, node.item, put(node.left, key, item), node.right);
+        } else if (key > node.key) {
+            return balance(node.key, node.item, node.left, put(node.right, key, item));
+        }
+        return new Node(key, item, node.left, node.right);
+    }
+
+    private static Node remove(Node node, long key) {
+        if (node == null) {
+            return null;
+        }
+        if (key < node.key) {
+            return balance(node.key, node.item, remove(node.left, key), node.right);
+        } else if (key > node.key) {
+            return balance(node.key, node.item, node.left, remove(node.right, key));
+        }
+        return glue(node.left, node.right);
+    }
+
+    /**
+     * Join two balanced subtrees whose parent was removed, moving the
+     * nearest item of the bigger one up into its place.
+     */
+    private static Node glue(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.size > right.size) {
+            Node max = left;
+            while (max.right != null) {
+                max = max.right;
+            }
+            return balance(max.key, max.item, removeMax(left), right);
+        }
+        Node min = right;
+        while (min.left != null) {
+            min = min.left;
+        }
+        return balance(min.key, min.item, left, removeMin(right));
+    }
+
+    private static Node removeMin(Node node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balance(node.key, node.item, removeMin(node.left), node.right);
+    }
+
+    private static Node removeMax(Node node) {
+        if (node.right == null) {
+            return node.left;
+        }
+        return balance(node.key, node.item, node.left, removeMax(node.right));
+    }
+
+    /**
+     * Make a node from subtrees that were balanced before one insertion or
+     * deletion on one side, rotating if one side got too heavy.
+     */
+    private static Node balance(long key, Object item, Node left, Node right) {
+        int leftSize = size(left);
+        int rightSize = size(right);
+        if (leftSize + rightSize <= 1) {
+            return new Node(key, item, left, right);
+        }
+        if (rightSize > DELTA * leftSize) {
+            if (size(right.left) < RATIO * size(right.right)) {
+                // single rotation to the left
+                return new Node(right.key, right.item, new Node(key, item, left, right.left), right.right);
+            }
+            Node middle = right.left;
+            return new Node(middle.key, middle.item, new Node(key, item, left, middle.left),
+                    new Node(right.key, right.item, middle.right, right.right));
+        }
+        if (leftSize > DELTA * rightSize) {
+            if (size(left.right) < RATIO * size(left.left)) {
+                // single rotation to the right
+                return new Node(left.key, left.item, left.left, new Node(key, item, left.right, right));
+            }
+            Node middle = left.right;
+            return new Node(middle.key, middle.item, new Node(left.key, left.item, left.left, middle.left),
+                    new Node(key, item, middle.right, right));
+        }
+        return new Node(key, item, left, right);
+    }
+
+    private static final class Node {
+        final long key;
+        final Object item;
+        final Node left;
+        final Node right;
+        final int size;
+
+        Node(long key, Object item, Node left, Node right) {
+            this.key = key;
+            this.item = item;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + size(right) + 1;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package drawshapes;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * An off-screen image of the scene as the panel shows it, with every shape
+ * filled in a color that is its own ID instead of its real color. Finding
+ * the topmost shape under a pixel is then a single array read.
+ *
+ * The shapes are filled with IShape.fill(), so the image covers exactly
+ * the pixels draw() paints, rotation included. They are filled in the
+ * same two passes as the panel draws them, the unselected shapes and then
+ * the selected ones on top, so later shapes cover earlier ones just as on
+ * screen. The image is only drawn again when a pick finds the geometry of
+ * the scene, the selection, the view or the size changed since the last
+ * one; recoloring shapes doesn't count.
+ *
+ * IDs are 24-bit colors, so only the first 16 million or so shapes can be
+ * picked.
+ */
+public class PickingBuffer {
+
+    // 0 is the background; shape i has ID i + 1
+    private static final int MAX_SHAPES = 0xFFFFFF - 1;
+
+    private final Scene scene;
+    private final Viewport viewport;
+    private BufferedImage image;
+    private int[] pixels;
+    // the shape with each ID, less one
+    private IShape[] shapes = new IShape[0];
+    // what the image was drawn for
+    private long geometryVersion = -1;
+    private long selectionVersion = -1;
+    private double scale;
+    private double translateX;
+    private double translateY;
+    private int rebuilds;
+
+    public PickingBuffer(Scene scene, Viewport viewport) {
+        this.scene = scene;
+        this.viewport = viewport;
+    }
+
+    /**
+     * Return the topmost shape drawn at the given pixel of a panel of the
+     * given size, or null if the pixel shows no shape.
+     */
+    public IShape pick(Point screen, int width, int height) {
+        if (screen.x < 0 || screen.y < 0 || screen.x >= width || screen.y >= height) {
+            return null;
+        }
+        if (isStale(width, height)) {
+            rebuild(width, height);
+        }
+        int id = pixels[screen.y * width + screen.x] & 0xFFFFFF;
+        return id == 0 ? null : shapes[id - 1];
+    }
+
+    /**
+     * Return how many times the image was drawn, to check it isn't drawn
+     * more often than it should be.
+     */
+    public int getRebuilds() {
+        return rebuilds;
+    }
+
+    /**
+     * Forget the image, so the next pick draws it again.
+     */
+    public void invalidate() {
+        geometryVersion = -1;
+        selectionVersion = -1;
+    }
+
+    private boolean isStale(int width, int height) {
+        return image == null || image.getWidth() != width || image.getHeight() != height
+                || geometryVersion != scene.getGeometryVersion()
+                || selectionVersion != scene.getSelectionVersion()
+                || scale != viewport.getScale()
+                || translateX != viewport.getTranslateX()
+                || translateY != viewport.getTranslateY();
+    }
+
+    /**
+     * Fill the shape with the next ID, if it is in view and there is an ID
+     * left for it.
+     *
+     * @return how many IDs are in use now
+     */
+    private int fill(Graphics2D g, IShape s, int count, BoundingBox visible) {
+        if (count == MAX_SHAPES || !s.getBoundingBox().intersects(visible)) {
+            return count;
+        }
+        shapes[count] = s;
+        count++;
+        g.setColor(new Color(count));
+        s.fill(g);
+        return count;
+    }
+
+    private void rebuild(int width, int height) {
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+        if (shapes.length < scene.size()) {
+            shapes = new IShape[Math.min(scene.size(), MAX_SHAPES)];
+        }
+        BoundingBox visible = viewport.toWorld(0, 0, width, height);
+        // fill() can paint a unit past the bounding box
+        visible.set(visible.getLeft() - 1, visible.getRight() + 1, visible.getTop() - 1, visible.getBottom() + 1);
+        Graphics2D g = image.createGraphics();
+        try {
+            // a blended edge pixel would read as some other shape's ID
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, width, height);
+            viewport.applyTo(g);
+            int count = 0;
+            for (IShape s : scene) {
+                if (!s.isSelected()) {
+                    count = fill(g, s, count, visible);
+                }
+            }
+            for (IShape s : scene.getSelectedInDrawOrder()) {
+                count = fill(g, s, count, visible);
+            }
+            if (count == MAX_SHAPES) {
+                EventLog.warn("Only the first %d shapes can be picked", MAX_SHAPES);
+            }
+            // don't hold on to shapes that were removed
+            for (int i = count; i < shapes.length && shapes[i] != null; i++) {
+                shapes[i] = null;
+            }
+        } finally {
+            g.dispose();
+        }
+        geometryVersion = scene.getGeometryVersion();
+        selectionVersion = scene.getSelectionVersion();
+        scale = viewport.getScale();
+        translateX = viewport.getTranslateX();
+        translateY = viewport.getTranslateY();
+        rebuilds++;
+    }
+}
@@ -0,0 +1,44 @@
+package drawshapes;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Gives a group of shapes a new color. Each shape's old color is
+ * remembered so undo can put it back.
+ */
+public class RecolorEdit implements Edit {
+
+    private final List<IShape> shapes;
+    private final List<Color> oldColors = new ArrayList<>();
+    private final Color color;
+
+    public RecolorEdit(Collection<IShape> shapes, Color color) {
+        this.shapes = new ArrayList<>(shapes);
+        this.color = color;
+        for (IShape s : this.shapes) {
+            oldColors.add(s.getColor());
+        }
+    }
+
+    @Override
+    public void redo(Scene scene) {
+        for (IShape s : shapes) {
+            s.setColor(color);
+        }
+    }
+
+    @Override
+    public void undo(Scene scene) {
+        for (int i = 0; i < shapes.size(); i++) {
+            shapes.get(i).setColor(oldColors.get(i));
+        }
+    }
+
+    @Override
+    public long estimateBytes() {
+        return 3 * UndoHistory.OBJECT_BYTES + shapes.size() * 2 * UndoHistory.REFERENCE_BYTES;
+    }
+}
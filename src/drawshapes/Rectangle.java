@@ -11,6 +11,9 @@ public class Rectangle extends AbstractShape {
     protected int width;
     protected int height;
     private double rotation = 0.0;  // Store rotation in degrees
+    // cosine and sine of the rotation, worked out once per rotate() call
+    private double cos = 1.0;
+    private double sin = 0.0;
 
     public Rectangle(Point clicked, int width, int height, Color color) {
         super(new Point(clicked.x - width / 2, clicked.y - height / 2));
@@ -28,28 +31,53 @@ public class Rectangle extends AbstractShape {
         this.height = bottom - top;
     }
 
+    protected Rectangle(Rectangle other) {
+        super(new Point(other.anchorPoint));
+        this.boundingBox = new BoundingBox(other.boundingBox);
+        this.color = other.color;
+        this.selected = other.selected;
+        this.width = other.width;
+        this.height = other.height;
+        this.rotation = other.rotation;
+        this.cos = other.cos;
+        this.sin = other.sin;
+    }
+
     /* (non-Javadoc)
      * @see drawshapes.sol.Shape#draw(java.awt.Graphics)
      */
     @Override
     public void draw(Graphics g) {
+        g.setColor(getDrawColor());
+        fill(g);
+    }
+
+    @Override
+    public void fill(Graphics g) {
+        if (rotation == 0.0) {
+            // nothing to turn, so leave the transform alone
+            g.fillRect(getAnchorPoint().x, getAnchorPoint().y, width, height);
+            return;
+        }
         Graphics2D g2d = (Graphics2D) g;
         AffineTransform oldTransform = g2d.getTransform();
 
         // Apply rotation
         g2d.rotate(Math.toRadians(rotation), getAnchorPoint().x + width / 2.0, getAnchorPoint().y + height / 2.0);
 
-        if (isSelected()) {
-            g.setColor(color.darker());
-        } else {
-            g.setColor(getColor());
-        }
         g.fillRect(getAnchorPoint().x, getAnchorPoint().y, width, height);
 
         // Restore original transform
         g2d.setTransform(oldTransform);
     }
 
+    /**
+     * Does draw() save and restore the transform of the Graphics object?
+     */
+    boolean savesTransform() {
+        return rotation != 0.0;
+    }
+
     public String toString() {
         return String.format("RECTANGLE %d %d %d %d %s %s",
                 getAnchorPoint().x,
@@ -100,15 +128,41 @@ public class Rectangle extends AbstractShape {
         updateBoundingBox();
     }
 
-    private void updateBoundingBox() {
+    protected void updateBoundingBox() {
+        if (rotation == 0.0) {
+            setBoundingBox(
+                    anchorPoint.x,
+                    anchorPoint.x + width,
+                    anchorPoint.y,
+                    anchorPoint.y + height
+            );
+            return;
+        }
+        // A rotated rectangle reaches past its unrotated corners, so box
+        // the rotated shape to cover everything draw() paints
+        double cos = Math.abs(this.cos);
+        double sin = Math.abs(this.sin);
+        double centerX = anchorPoint.x + width / 2.0;
+        double centerY = anchorPoint.y + height / 2.0;
+        double halfWidth = (width * cos + height * sin) / 2.0;
+        double halfHeight = (width * sin + height * cos) / 2.0;
         setBoundingBox(
-                anchorPoint.x,
-                anchorPoint.x + width,
-                anchorPoint.y,
-                anchorPoint.y + height
+                (int) Math.floor(centerX - halfWidth),
+                (int) Math.ceil(centerX + halfWidth),
+                (int) Math.floor(centerY - halfHeight),
+                (int) Math.ceil(centerY + halfHeight)
         );
     }
 
+    @Override
+    public long contentHash() {
+        long hash = baseContentHash();
+        hash = mixHash(hash, width);
+        hash = mixHash(hash, height);
+        // adding 0.0 turns -0.0 into 0.0
+        return mixHash(hash, Double.doubleToLongBits(rotation + 0.0));
+    }
+
     // Add getter method for rotation
     public double getRotation() {
         return rotation;
@@ -116,23 +170,109 @@ public class Rectangle extends AbstractShape {
 
     // Add rotation method if not already present
     public void rotate(double degrees) {
-        this.rotation = (this.rotation + degrees) % 360;
-        if (this.rotation < 0) {
-            this.rotation += 360;
+        setRotation(this.rotation + degrees);
+    }
+
+    /**
+     * Set the rotation in degrees. Undo uses this to put back a rotation
+     * exactly, where rotating back by the same angle might not.
+     */
+    public void setRotation(double degrees) {
+        this.rotation = normalizeRotation(degrees);
+        double radians = Math.toRadians(this.rotation);
+        this.cos = Math.cos(radians);
+        this.sin = Math.sin(radians);
+        updateBoundingBox();
+    }
+
+    /**
+     * Return the same angle in degrees, from 0 up to but not including 360.
+     */
+    static double normalizeRotation(double degrees) {
+        double normalized = degrees % 360;
+        if (normalized < 0) {
+            normalized += 360;
         }
+        // a tiny negative angle plus 360 can round to 360
+        return normalized == 360 ? 0.0 : normalized;
+    }
+
+    /**
+     * Is the point inside the rectangle? For a rotated rectangle the point
+     * is turned into the rectangle's own unrotated frame first.
+     */
+    @Override
+    protected boolean containsExactly(double x, double y) {
+        if (rotation == 0.0) {
+            return true;
+        }
+        double dx = x - getCenterX();
+        double dy = y - getCenterY();
+        double localX = dx * cos + dy * sin;
+        double localY = -dx * sin + dy * cos;
+        return Math.abs(localX) <= width / 2.0 && Math.abs(localY) <= height / 2.0;
+    }
+
+    @Override
+    protected boolean intersectsExactly(IShape other) {
+        if (other instanceof Circle) {
+            return ((Circle) other).intersectsRectangle(this);
+        }
+        if (other instanceof Rectangle) {
+            Rectangle r = (Rectangle) other;
+            if (rotation == 0.0 && r.rotation == 0.0) {
+                return true;  // the bounding boxes are the rectangles
+            }
+            return !separatedAlong(cos, sin, r) && !separatedAlong(-sin, cos, r)
+                    && !separatedAlong(r.cos, r.sin, r) && !separatedAlong(-r.sin, r.cos, r);
+        }
+        return true;
+    }
+
+    /**
+     * Separating axis test: do this rectangle and the other one project
+     * onto the given axis as two intervals with a gap between them?
+     */
+    private boolean separatedAlong(double axisX, double axisY, Rectangle other) {
+        double distance = Math.abs((other.getCenterX() - getCenterX()) * axisX
+                + (other.getCenterY() - getCenterY()) * axisY);
+        return distance > projectedRadius(axisX, axisY) + other.projectedRadius(axisX, axisY);
+    }
+
+    private double projectedRadius(double axisX, double axisY) {
+        return width / 2.0 * Math.abs(cos * axisX + sin * axisY)
+                + height / 2.0 * Math.abs(-sin * axisX + cos * axisY);
+    }
+
+    /**
+     * Distance squared from the given point to the nearest point of this
+     * rectangle, zero if the point is inside.
+     */
+    double distanceSquaredTo(double x, double y) {
+        double dx = x - getCenterX();
+        double dy = y - getCenterY();
+        double localX = dx * cos + dy * sin;
+        double localY = -dx * sin + dy * cos;
+        double outsideX = Math.max(0, Math.abs(localX) - width / 2.0);
+        double outsideY = Math.max(0, Math.abs(localY) - height / 2.0);
+        return outsideX * outsideX + outsideY * outsideY;
+    }
+
+    private double getCenterX() {
+        return anchorPoint.x + width / 2.0;
+    }
+
+    private double getCenterY() {
+        return anchorPoint.y + height / 2.0;
+    }
+
+    @Override
+    public Rectangle copy() {
+        return new Rectangle(this);
     }
 
-    // Make sure these are added to the clone method
     @Override
     public Rectangle clone() {
-        Rectangle cloned = new Rectangle(
-                new Point(anchorPoint),
-                width,
-                height,
-                new Color(color.getRGB())
-        );
-        cloned.setSelected(selected);
-        cloned.rotation = this.rotation;  // Copy rotation value
-        return cloned;
+        return copy();
     }
 }
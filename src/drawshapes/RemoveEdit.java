@@ -0,0 +1,61 @@
+package drawshapes;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Removes a group of shapes from the scene. Undo puts every shape back
+ * at the position it had in the drawing order.
+ */
+public class RemoveEdit implements Edit {
+
+    private final Set<IShape> toRemove = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final List<IShape> removed = new ArrayList<>();
+    private int[] positions = new int[0];
+
+    public RemoveEdit(Collection<IShape> shapes) {
+        toRemove.addAll(shapes);
+    }
+
+    @Override
+    public void redo(Scene scene) {
+        // remember where each shape was, in drawing order
+        removed.clear();
+        List<Integer> found = new ArrayList<>();
+        int i = 0;
+        for (IShape s : scene) {
+            if (toRemove.contains(s)) {
+                removed.add(s);
+                found.add(i);
+            }
+            i++;
+        }
+        positions = new int[found.size()];
+        for (int j = 0; j < positions.length; j++) {
+            positions[j] = found.get(j);
+        }
+        scene.removeShapes(toRemove);
+    }
+
+    @Override
+    public void undo(Scene scene) {
+        // lowest position first, so later positions are correct again
+        // by the time we get to them
+        for (int j = 0; j < positions.length; j++) {
+            scene.insertShape(positions[j], removed.get(j));
+        }
+    }
+
+    @Override
+    public long estimateBytes() {
+        // the set, the list and the positions, and the removed shapes
+        // themselves, which nothing else holds on to
+        return 4 * UndoHistory.OBJECT_BYTES
+                + toRemove.size() * (UndoHistory.OBJECT_BYTES + 2 * UndoHistory.REFERENCE_BYTES)
+                + removed.size() * (UndoHistory.SHAPE_BYTES + UndoHistory.REFERENCE_BYTES + 4);
+    }
+}
@@ -0,0 +1,243 @@
+package drawshapes;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Measures where the time of each frame goes: how long painting took, how
+ * many shapes were drawn and how many skipped, how much the input handling
+ * allocated, and how big the scene and its undo history are.
+ *
+ * The panel and the input handling call the begin and end methods on the
+ * event thread. The results can be read from any thread, by the on-canvas
+ * overlay or over JMX.
+ */
+public class RenderMetrics implements RenderMetricsMBean {
+
+    private static final String OBJECT_NAME = "drawshapes:type=RenderMetrics";
+
+    private final LatencyHistogram paintNanos = new LatencyHistogram();
+    private final LatencyHistogram inputAllocatedBytes = new LatencyHistogram();
+    // null if the JVM can't count allocations per thread
+    private final com.sun.management.ThreadMXBean allocations;
+    private FrameScheduler scheduler;
+
+    private volatile long frameCount;
+    private volatile long lastPaintNanos;
+    private volatile int lastShapesDrawn;
+    private volatile int lastShapesCulled;
+    private volatile int lastShapesSimplified;
+    private volatile int lastTransformSaves;
+    private volatile int lastColorChanges;
+    private volatile int lastShapesOccluded;
+    private volatile double lastOverdrawRatio;
+    private volatile double lastOverdrawRatioWithHidden;
+    private volatile long spriteHits;
+    private volatile long spriteMisses;
+    private volatile long spriteCacheBytes;
+    private volatile int sceneSize;
+    private volatile long undoHistoryBytes;
+    private volatile long lastInputAllocatedBytes;
+
+    // only used on the event thread
+    private long frameStart;
+    private long inputStartBytes = -1;
+
+    public RenderMetrics() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            allocations = (com.sun.management.ThreadMXBean) threads;
+            allocations.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            allocations = null;
+        }
+    }
+
+    /**
+     * Publish the metrics over JMX. Failing to is not worth stopping for,
+     * so it is only logged.
+     */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            EventLog.warn("Could not register the render metrics: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Also report the lost frames of the given scheduler.
+     */
+    public void setFrameScheduler(FrameScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public void beginPaint(Scene scene) {
+        scene.resetDrawCounts();
+        frameStart = System.nanoTime();
+    }
+
+    public void endPaint(Scene scene) {
+        long elapsed = System.nanoTime() - frameStart;
+        paintNanos.record(elapsed);
+        lastPaintNanos = elapsed;
+        lastShapesDrawn = scene.getShapesDrawn();
+        lastShapesCulled = scene.getShapesCulled();
+        lastShapesSimplified = scene.getShapesSimplified();
+        lastTransformSaves = scene.getTransformSaves();
+        lastColorChanges = scene.getColorChanges();
+        lastShapesOccluded = scene.getShapesOccluded();
+        lastOverdrawRatio = scene.getOverdrawRatio();
+        lastOverdrawRatioWithHidden = scene.getOverdrawRatioWithHidden();
+        SpriteCache sprites = scene.getSpriteCache();
+        spriteHits = sprites.getHits();
+        spriteMisses = sprites.getMisses();
+        spriteCacheBytes = sprites.getBytes();
+        sceneSize = scene.size();
+        undoHistoryBytes = scene.getHistory().getRetainedBytes();
+        frameCount++;
+    }
+
+    public void beginInput() {
+        inputStartBytes = allocatedBytes();
+    }
+
+    public void endInput() {
+        if (inputStartBytes < 0) {
+            return;
+        }
+        long allocated = allocatedBytes() - inputStartBytes;
+        inputAllocatedBytes.record(allocated);
+        lastInputAllocatedBytes = allocated;
+        inputStartBytes = -1;
+    }
+
+    private long allocatedBytes() {
+        if (allocations == null) {
+            return -1;
+        }
+        return allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Override
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public long getLostFrames() {
+        FrameScheduler frames = scheduler;
+        return frames == null ? 0 : frames.getFramesLost();
+    }
+
+    @Override
+    public long getLastPaintMicros() {
+        return lastPaintNanos / 1000;
+    }
+
+    @Override
+    public long getPaintMicrosP50() {
+        return paintNanos.getValueAtPercentile(50) / 1000;
+    }
+
+    @Override
+    public long getPaintMicrosP90() {
+        return paintNanos.getValueAtPercentile(90) / 1000;
+    }
+
+    @Override
+    public long getPaintMicrosP99() {
+        return paintNanos.getValueAtPercentile(99) / 1000;
+    }
+
+    @Override
+    public long getPaintMicrosMax() {
+        return paintNanos.getMax() / 1000;
+    }
+
+    @Override
+    public int getLastShapesDrawn() {
+        return lastShapesDrawn;
+    }
+
+    @Override
+    public int getLastShapesCulled() {
+        return lastShapesCulled;
+    }
+
+    @Override
+    public int getLastShapesSimplified() {
+        return lastShapesSimplified;
+    }
+
+    @Override
+    public int getLastTransformSaves() {
+        return lastTransformSaves;
+    }
+
+    @Override
+    public int getLastColorChanges() {
+        return lastColorChanges;
+    }
+
+    @Override
+    public int getLastShapesOccluded() {
+        return lastShapesOccluded;
+    }
+
+    @Override
+    public double getLastOverdrawRatio() {
+        return lastOverdrawRatio;
+    }
+
+    @Override
+    public double getLastOverdrawRatioWithHidden() {
+        return lastOverdrawRatioWithHidden;
+    }
+
+    @Override
+    public long getSpriteHits() {
+        return spriteHits;
+    }
+
+    @Override
+    public long getSpriteMisses() {
+        return spriteMisses;
+    }
+
+    @Override
+    public long getSpriteCacheBytes() {
+        return spriteCacheBytes;
+    }
+
+    @Override
+    public int getSceneSize() {
+        return sceneSize;
+    }
+
+    @Override
+    public long getUndoHistoryBytes() {
+        return undoHistoryBytes;
+    }
+
+    @Override
+    public long getLastInputAllocatedBytes() {
+        return lastInputAllocatedBytes;
+    }
+
+    @Override
+    public long getInputAllocatedBytesP99() {
+        return inputAllocatedBytes.getValueAtPercentile(99);
+    }
+
+    @Override
+    public void reset() {
+        paintNanos.reset();
+        inputAllocatedBytes.reset();
+        frameCount = 0;
+    }
+}
@@ -0,0 +1,71 @@
+package drawshapes;
+
+/**
+ * The rendering metrics that DrawShapes publishes over JMX, under the name
+ * drawshapes:type=RenderMetrics. Times are in microseconds.
+ */
+public interface RenderMetricsMBean
+{
+    public long getFrameCount();
+    
+    public long getLostFrames();
+    
+    public long getLastPaintMicros();
+    
+    public long getPaintMicrosP50();
+    
+    public long getPaintMicrosP90();
+    
+    public long getPaintMicrosP99();
+    
+    public long getPaintMicrosMax();
+    
+    public int getLastShapesDrawn();
+    
+    public int getLastShapesCulled();
+    
+    public int getLastShapesSimplified();
+    
+    public int getLastTransformSaves();
+    
+    public int getLastColorChanges();
+    
+    public int getLastShapesOccluded();
+    
+    /**
+     * How many times over the last frame painted the area it drew, not
+     * counting the selection.
+     */
+    public double getLastOverdrawRatio();
+    
+    /**
+     * The overdraw ratio the last frame would have had if it had drawn the
+     * shapes hidden under opaque rectangles too.
+     */
+    public double getLastOverdrawRatioWithHidden();
+    
+    /**
+     * How many shapes the scene has copied from a sprite so far.
+     */
+    public long getSpriteHits();
+    
+    /**
+     * How many sprites the scene has had to draw so far.
+     */
+    public long getSpriteMisses();
+    
+    public long getSpriteCacheBytes();
+    
+    public int getSceneSize();
+    
+    public long getUndoHistoryBytes();
+    
+    public long getLastInputAllocatedBytes();
+    
+    public long getInputAllocatedBytesP99();
+    
+    /**
+     * Forget the histograms and counts, to start measuring afresh.
+     */
+    public void reset();
+}
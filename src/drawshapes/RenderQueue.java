@@ -0,0 +1,315 @@
+package drawshapes;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+
+/**
+ * Collects draw commands for shapes and issues them to a Graphics object
+ * in batches of the same color, so the color is set once per batch rather
+ * than once per shape.
+ *
+ * A command may only move ahead of commands it doesn't overlap, so the
+ * picture is the same as drawing the shapes one by one in order. Within a
+ * batch every command has the same color, so their order among themselves
+ * doesn't matter: the plain rectangles and ovals go first, and then the
+ * rotated rectangles, which are the only ones that touch the transform,
+ * under a transform saved once for the whole batch.
+ *
+ * Commands are kept in flat arrays and issued every CAPACITY commands, so
+ * a pass allocates nothing. Only recent batches are searched for one to
+ * join, which bounds the work per command.
+ *
+ * Small ovals are copied from a SpriteCache instead of drawn, when the
+ * Graphics object draws at actual size.
+ */
+public class RenderQueue {
+
+    private static final int CAPACITY = 4096;
+    // how many batches back a command looks for one of its color
+    private static final int LOOKBACK = 16;
+
+    private static final byte RECT = 0;
+    private static final byte OVAL = 1;
+    // a rotated rectangle, drawn by its fill() method
+    private static final byte ROTATED = 2;
+    // any other shape, drawn by its own draw() method
+    private static final byte OTHER = 3;
+
+    private final byte[] kind = new byte[CAPACITY];
+    private final Color[] color = new Color[CAPACITY];
+    private final IShape[] shape = new IShape[CAPACITY];
+    private final int[] x = new int[CAPACITY];
+    private final int[] y = new int[CAPACITY];
+    private final int[] width = new int[CAPACITY];
+    private final int[] height = new int[CAPACITY];
+    // the bounding box, for the overlap test
+    private final int[] left = new int[CAPACITY];
+    private final int[] right = new int[CAPACITY];
+    private final int[] top = new int[CAPACITY];
+    private final int[] bottom = new int[CAPACITY];
+    private int count;
+
+    // batches, each a linked list of commands through next[]
+    private final Color[] batchColor = new Color[CAPACITY];
+    private final int[] batchFirst = new int[CAPACITY];
+    private final int[] batchLast = new int[CAPACITY];
+    private final int[] batchLeft = new int[CAPACITY];
+    private final int[] batchRight = new int[CAPACITY];
+    private final int[] batchTop = new int[CAPACITY];
+    private final int[] batchBottom = new int[CAPACITY];
+    private final int[] next = new int[CAPACITY];
+    private int batchCount;
+
+    private Graphics target;
+    // the color the target was last set to by this queue, or null if unknown
+    private Color current;
+    private int colorChanges;
+
+    private final SpriteCache sprites = new SpriteCache();
+    private boolean spritesEnabled = true;
+    // whether sprites come out the same as drawing on the target
+    private boolean spritesUsable;
+
+    /**
+     * Start collecting commands for the given Graphics object.
+     */
+    public void begin(Graphics g) {
+        target = g;
+        current = null;
+        count = 0;
+        batchCount = 0;
+        spritesUsable = spritesEnabled && isActualSize(g);
+    }
+
+    /**
+     * Queue a shape, drawn the way its draw() method would.
+     */
+    public void add(IShape s) {
+        BoundingBox b = s.getBoundingBox();
+        int i;
+        if (s instanceof Circle) {
+            Circle c = (Circle) s;
+            int d = c.getDiameter();
+            i = put(OVAL, getDrawColor(s), s.getAnchorPoint().x - d / 2, s.getAnchorPoint().y - d / 2, d, d, b);
+        } else if (s instanceof Rectangle) {
+            Rectangle r = (Rectangle) s;
+            byte k = r.getRotation() == 0.0 ? RECT : ROTATED;
+            i = put(k, getDrawColor(s), s.getAnchorPoint().x, s.getAnchorPoint().y, r.getWidth(), r.getHeight(), b);
+        } else {
+            i = put(OTHER, null, 0, 0, 0, 0, b);
+        }
+        shape[i] = s;
+    }
+
+    /**
+     * Fill an axis-aligned rectangle right away, after everything already
+     * queued. For the many tiny fills of a zoomed out view the bookkeeping
+     * of a batch costs more than it saves, so these only skip setting the
+     * color when it is already right.
+     */
+    public void fillRect(Color c, int x, int y, int width, int height) {
+        flush();
+        setColor(c);
+        target.fillRect(x, y, width, height);
+    }
+
+    /**
+     * Issue every queued command.
+     */
+    public void flush() {
+        if (count == 0) {
+            return;
+        }
+        for (int b = 0; b < batchCount; b++) {
+            drawBatch(b);
+        }
+        for (int i = 0; i < count; i++) {
+            shape[i] = null;
+            color[i] = null;
+        }
+        for (int b = 0; b < batchCount; b++) {
+            batchColor[b] = null;
+        }
+        count = 0;
+        batchCount = 0;
+    }
+
+    /**
+     * Issue every queued command and let go of the Graphics object.
+     */
+    public void end() {
+        flush();
+        target = null;
+    }
+
+    /**
+     * Return how many times the color of the Graphics object was set since
+     * the counts were last reset.
+     */
+    public int getColorChanges() {
+        return colorChanges;
+    }
+
+    public void resetCounts() {
+        colorChanges = 0;
+    }
+
+    public SpriteCache getSpriteCache() {
+        return sprites;
+    }
+
+    public boolean isSpritesEnabled() {
+        return spritesEnabled;
+    }
+
+    /**
+     * Turn drawing from sprites on or off. Turning it off also frees the
+     * sprites.
+     */
+    public void setSpritesEnabled(boolean enabled) {
+        spritesEnabled = enabled;
+        if (!enabled) {
+            sprites.clear();
+        }
+    }
+
+    /**
+     * Does the Graphics object draw without scaling, rotating or blending,
+     * and only move things by whole pixels? A sprite is a picture of a
+     * shape at one size and one position within a pixel, so only then is
+     * copying it the same as drawing the shape.
+     */
+    private static boolean isActualSize(Graphics g) {
+        if (!(g instanceof Graphics2D)) {
+            return false;
+        }
+        Graphics2D g2d = (Graphics2D) g;
+        if (g2d.getRenderingHint(RenderingHints.KEY_ANTIALIASING) == RenderingHints.VALUE_ANTIALIAS_ON) {
+            return false;
+        }
+        AffineTransform t = g2d.getTransform();
+        int type = t.getType();
+        return (type == AffineTransform.TYPE_IDENTITY || type == AffineTransform.TYPE_TRANSLATION)
+                && t.getTranslateX() == Math.rint(t.getTranslateX())
+                && t.getTranslateY() == Math.rint(t.getTranslateY());
+    }
+
+    /**
+     * Store a command and file it in a batch.
+     *
+     * @return the index of the command
+     */
+    private int put(byte k, Color c, int px, int py, int w, int h, BoundingBox b) {
+        if (count == CAPACITY) {
+            flush();
+        }
+        int i = count++;
+        kind[i] = k;
+        color[i] = c;
+        x[i] = px;
+        y[i] = py;
+        width[i] = w;
+        height[i] = h;
+        // a unit to spare, since draw() can paint a pixel past the box
+        left[i] = b.getLeft() - 1;
+        right[i] = b.getRight() + 1;
+        top[i] = b.getTop() - 1;
+        bottom[i] = b.getBottom() + 1;
+        next[i] = -1;
+        addToBatch(i);
+        return i;
+    }
+
+    /**
+     * Put the command in the most recent batch of its color that it can
+     * join without jumping over a command it overlaps, or else in a new
+     * batch at the end.
+     */
+    private void addToBatch(int i) {
+        if (color[i] != null) {
+            int stop = Math.max(0, batchCount - LOOKBACK);
+            for (int b = batchCount - 1; b >= stop; b--) {
+                if (color[i].equals(batchColor[b])) {
+                    next[batchLast[b]] = i;
+                    batchLast[b] = i;
+                    batchLeft[b] = Math.min(batchLeft[b], left[i]);
+                    batchRight[b] = Math.max(batchRight[b], right[i]);
+                    batchTop[b] = Math.min(batchTop[b], top[i]);
+                    batchBottom[b] = Math.max(batchBottom[b], bottom[i]);
+                    return;
+                }
+                if (batchLeft[b] <= right[i] && left[i] <= batchRight[b]
+                        && batchTop[b] <= bottom[i] && top[i] <= batchBottom[b]) {
+                    break;
+                }
+            }
+        }
+        int b = batchCount++;
+        batchColor[b] = color[i];
+        batchFirst[b] = i;
+        batchLast[b] = i;
+        batchLeft[b] = left[i];
+        batchRight[b] = right[i];
+        batchTop[b] = top[i];
+        batchBottom[b] = bottom[i];
+    }
+
+    private void drawBatch(int b) {
+        Graphics g = target;
+        if (batchColor[b] == null) {
+            // a shape that sets its own color
+            shape[batchFirst[b]].draw(g);
+            current = null;
+            return;
+        }
+        setColor(batchColor[b]);
+        boolean anyRotated = false;
+        for (int i = batchFirst[b]; i != -1; i = next[i]) {
+            if (kind[i] == RECT) {
+                g.fillRect(x[i], y[i], width[i], height[i]);
+            } else if (kind[i] == OVAL) {
+                if (!spritesUsable || !sprites.drawOval((Graphics2D) g, x[i], y[i], width[i], color[i])) {
+                    g.fillOval(x[i], y[i], width[i], width[i]);
+                }
+            } else {
+                anyRotated = true;
+            }
+        }
+        if (!anyRotated) {
+            return;
+        }
+        Graphics2D g2d = (Graphics2D) g;
+        AffineTransform saved = g2d.getTransform();
+        for (int i = batchFirst[b]; i != -1; i = next[i]) {
+            if (kind[i] == ROTATED) {
+                Rectangle r = (Rectangle) shape[i];
+                g2d.rotate(Math.toRadians(r.getRotation()), x[i] + width[i] / 2.0, y[i] + height[i] / 2.0);
+                g.fillRect(x[i], y[i], width[i], height[i]);
+                g2d.setTransform(saved);
+            }
+        }
+    }
+
+    private void setColor(Color c) {
+        if (c != current && !c.equals(current)) {
+            target.setColor(c);
+            current = c;
+            colorChanges++;
+        }
+    }
+
+    /**
+     * Return the color draw() would paint the shape in. Shape classes that
+     * cache their darker selected color have it looked up rather than
+     * worked out again.
+     */
+    static Color getDrawColor(IShape s) {
+        if (s instanceof AbstractShape) {
+            return ((AbstractShape) s).getDrawColor();
+        }
+        return s.isSelected() ? s.getColor().darker() : s.getColor();
+    }
+}
@@ -0,0 +1,84 @@
+package drawshapes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Changes the size of a group of shapes. For a circle the width and
+ * height are both its diameter.
+ */
+public class ResizeEdit implements Edit {
+
+    private final List<IShape> shapes = new ArrayList<>();
+    private final List<int[]> sizes = new ArrayList<>();  // old width, old height, new width, new height
+
+    /**
+     * Add a shape to this edit. The shape's current size is remembered
+     * as the size to go back to on undo.
+     * 
+     * @param shape
+     * @param width the new width
+     * @param height the new height
+     */
+    public void add(IShape shape, int width, int height) {
+        shapes.add(shape);
+        sizes.add(new int[] { getWidth(shape), getHeight(shape), width, height });
+    }
+
+    public boolean isEmpty() {
+        return shapes.isEmpty();
+    }
+
+    @Override
+    public void redo(Scene scene) {
+        for (int i = 0; i < shapes.size(); i++) {
+            int[] size = sizes.get(i);
+            setSize(shapes.get(i), size[2], size[3]);
+        }
+    }
+
+    @Override
+    public void undo(Scene scene) {
+        for (int i = 0; i < shapes.size(); i++) {
+            int[] size = sizes.get(i);
+            setSize(shapes.get(i), size[0], size[1]);
+        }
+    }
+
+    static int getWidth(IShape shape) {
+        if (shape instanceof Rectangle) {
+            return ((Rectangle) shape).getWidth();
+        } else if (shape instanceof Circle) {
+            return ((Circle) shape).getDiameter();
+        }
+        throw new UnsupportedOperationException("Cannot resize " + shape);
+    }
+
+    static int getHeight(IShape shape) {
+        if (shape instanceof Rectangle) {
+            return ((Rectangle) shape).getHeight();
+        } else if (shape instanceof Circle) {
+            return ((Circle) shape).getDiameter();
+        }
+        throw new UnsupportedOperationException("Cannot resize " + shape);
+    }
+
+    private static void setSize(IShape shape, int width, int height) {
+        if (shape instanceof Square) {
+            ((Square) shape).setSize(width);
+        } else if (shape instanceof Rectangle) {
+            Rectangle rect = (Rectangle) shape;
+            rect.setWidth(width);
+            rect.setHeight(height);
+        } else if (shape instanceof Circle) {
+            ((Circle) shape).setDiameter(width);
+        }
+    }
+
+    @Override
+    public long estimateBytes() {
+        // a reference and an int[4] per shape
+        return 3 * UndoHistory.OBJECT_BYTES
+                + shapes.size() * (2 * UndoHistory.REFERENCE_BYTES + UndoHistory.OBJECT_BYTES + 16);
+    }
+}
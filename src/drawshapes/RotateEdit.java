@@ -0,0 +1,84 @@
+package drawshapes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rotates a group of rectangles, each by its own angle.
+ *
+ * The rotation each rectangle had before and has after the edit are kept,
+ * not the angle it turned by, so undo puts back exactly the rotation it
+ * had. Adding the negated angle back could leave an unrotated rectangle
+ * a rounding error away from 0.
+ */
+public class RotateEdit implements Edit {
+
+    private final List<Rectangle> shapes = new ArrayList<>();
+    private final List<double[]> rotations = new ArrayList<>();  // old rotation, new rotation
+
+    /**
+     * Add a rectangle to this edit. The rectangle's current rotation is
+     * remembered as the rotation to go back to on undo.
+     * 
+     * @param rect
+     * @param degrees how far to rotate it
+     */
+    public void add(Rectangle rect, double degrees) {
+        double before = rect.getRotation();
+        add(rect, before, Rectangle.normalizeRotation(before + degrees));
+    }
+
+    private void add(Rectangle rect, double before, double after) {
+        shapes.add(rect);
+        rotations.add(new double[] { before, after });
+    }
+
+    public boolean isEmpty() {
+        return shapes.isEmpty();
+    }
+
+    /**
+     * Combine this rotation with a following rotation of the same
+     * rectangles. The combined edit goes back to the rotations from before
+     * this one.
+     * 
+     * @param next
+     * @return one edit doing both rotations, or null if the rectangles differ
+     */
+    RotateEdit merge(RotateEdit next) {
+        if (shapes.size() != next.shapes.size()) {
+            return null;
+        }
+        for (int i = 0; i < shapes.size(); i++) {
+            if (shapes.get(i) != next.shapes.get(i)) {
+                return null;
+            }
+        }
+        RotateEdit merged = new RotateEdit();
+        for (int i = 0; i < shapes.size(); i++) {
+            merged.add(shapes.get(i), rotations.get(i)[0], next.rotations.get(i)[1]);
+        }
+        return merged;
+    }
+
+    @Override
+    public void redo(Scene scene) {
+        for (int i = 0; i < shapes.size(); i++) {
+            shapes.get(i).setRotation(rotations.get(i)[1]);
+        }
+    }
+
+    @Override
+    public void undo(Scene scene) {
+        for (int i = shapes.size() - 1; i >= 0; i--) {
+            shapes.get(i).setRotation(rotations.get(i)[0]);
+        }
+    }
+
+    @Override
+    public long estimateBytes() {
+        // a reference and a double[2] per shape
+        return 3 * UndoHistory.OBJECT_BYTES
+                + shapes.size() * (2 * UndoHistory.REFERENCE_BYTES + UndoHistory.OBJECT_BYTES + 16);
+    }
+}
@@ -1,12 +1,21 @@
 package drawshapes;
 
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Point;
-import java.awt.Color;  // Add this import
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * A scene of shapes. Uses the Model-View-Controller (MVC) design pattern,
@@ -20,65 +29,728 @@ import java.util.List;
  * @author jspacco
  *
  */
-public class Scene implements Iterable<IShape>, Cloneable {
+public class Scene implements Iterable<IShape>, Cloneable, IShapeListener {
 
-    private List<IShape> shapeList = new LinkedList<IShape>();
+    private static final int MAX_DIRTY_REGIONS = 16;
+    // below this many shapes, drawing just walks them all
+    private static final int INDEXED_DRAW_MIN_SHAPES = 1024;
+    // shapes fewer pixels across than this are drawn as their bounding box
+    private static final int DETAIL_PIXELS = 4;
+    // the most pixels a pass keeps track of for shapes drawn as pixels
+    private static final int MAX_DOT_CELLS = 1 << 24;
+    // the most occluders drawn after a shape that are tested for hiding it
+    private static final int MAX_OCCLUDER_TESTS = 8;
+    // shapes fewer pixels across than this are cheaper to draw than to
+    // test for an occluder; unrotated rectangles fill so fast they have
+    // to be bigger still
+    private static final int OCCLUSION_MIN_PIXELS = 8;
+    private static final int OCCLUSION_MIN_PIXELS_RECT = 32;
+    // rectangles smaller than this either way hide too little to be worth
+    // testing shapes against
+    private static final int MIN_OCCLUDER_SIZE = 32;
+    // the gap between the order keys of shapes added at the end
+    private static final long ORDER_KEY_STEP = 1L << 32;
+    // a publish that has more edits than this fraction of the shapes
+    // rebuilds the snapshot instead of making them one at a time
+    private static final int REBUILD_FRACTION = 16;
+    // the most edits the collections that record them are kept big enough
+    // for, after a publish empties them
+    private static final int MAX_KEPT_EDITS = 1024;
+
+    private List<IShape> shapeList = new ArrayList<IShape>();
+    private SpatialIndex index = new SpatialIndex();
+    // the big, opaque, unrotated rectangles, which hide whatever they cover
+    private SpatialIndex occluders = new SpatialIndex();
+    private UndoHistory history = new UndoHistory();
+    private CompoundEdit transaction;
+    private int transactionDepth;
+    private List<BoundingBox> dirtyRegions = new ArrayList<BoundingBox>();
+    private List<BoundingBox> staticDirtyRegions = new ArrayList<BoundingBox>();
+    // the selected shapes, in the order they were selected
+    private Set<IShape> selection = new LinkedHashSet<IShape>();
+    // the shapes the selection rectangle covered at the last drag event, as
+    // a list to walk and a set to look up, and an empty pair the next event
+    // fills, so a drag reuses the same four collections
+    private List<IShape> rubberBand;
+    private Set<IShape> rubberBandSet = Collections.newSetFromMap(new IdentityHashMap<>());
+    private List<IShape> spareRubberBand = new ArrayList<IShape>();
+    private Set<IShape> spareRubberBandSet = Collections.newSetFromMap(new IdentityHashMap<>());
+    // filled by queries on the spatial indexes and emptied after use
+    private List<IShape> candidates = new ArrayList<IShape>();
+    private List<IShape> underClip = new ArrayList<IShape>();
     private SelectionRectangle selectRect;
     private boolean isDrag;
     private Point startDrag;
+    // the last published snapshot, and what changed since: the shapes
+    // added, the order keys of the shapes removed, and the shapes changed
+    // in place
+    private volatile SceneSnapshot published = SceneSnapshot.EMPTY;
+    private PersistentRankTree<IShape> frozenShapes = PersistentRankTree.empty();
+    private Set<IShape> addedShapes = Collections.newSetFromMap(new IdentityHashMap<>());
+    private long[] removedKeys = new long[16];
+    private int removedCount;
+    private Set<IShape> staleShapes = Collections.newSetFromMap(new IdentityHashMap<>());
+    // a key for every shape in the scene, growing along the drawing order,
+    // that stays the same while the shape does; the snapshots keep their
+    // copies under these keys, so a shape's copy can be found however many
+    // shapes were added or removed before it, and comparing two shapes'
+    // keys tells which is drawn first without knowing their positions
+    private Map<IShape, Long> orderKeys = new IdentityHashMap<IShape, Long>();
+    // bumped by every change to the scene
+    private long version;
+    // bumped only by changes to where the shapes are and what covers what
+    private long geometryVersion;
+    // bumped by every selection or deselection
+    private long selectionVersion;
+    // the shape whose color or selection just changed, if any
+    private IShape restyled;
+    // sum of the spread content hashes of the shapes
+    private long contentHash;
+    private ISnapshotListener snapshotListener;
+    // what the draw methods did since the last resetDrawCounts()
+    private int shapesDrawn;
+    private int shapesCulled;
+    private int shapesSimplified;
+    private int transformSaves;
+    private int shapesOccluded;
+    // areas in square scene units: of the passes, and of the shapes drawn
+    // and hidden in them, for the overdraw ratio
+    private long passArea;
+    private long areaDrawn;
+    private long areaHidden;
+    // the clip of the current draw pass, in scene coordinates, or null
+    private BoundingBox passClip;
+    private BoundingBox clipBox;
+    // scene units per pixel of the current pass
+    private double pixelSize;
+    // one bit per pixel of the clip, set once a shape drawn as that pixel
+    // was found, and one bit per shape of the pass, set for the shapes
+    // drawn as a pixel that a later shape in the pass is drawn as too
+    private long[] dotMask = new long[0];
+    private int dotColumns;
+    private BitSet overdrawnDots = new BitSet();
+    // whether the current pass skips shapes hidden by a later occluder,
+    // and leaves out the selected shapes
+    private boolean cullHidden;
+    private boolean passSkipsSelected;
+    // how far an occluder must reach past a shape to be sure to hide it
+    private int occlusionMargin;
+    // batches the draw commands of a pass by color
+    private RenderQueue queue = new RenderQueue();
 
+    /**
+     * Grow the selection rectangle to the given point and select exactly
+     * the shapes it covers.
+     *
+     * The first call of a drag replaces the old selection. After that only
+     * the shapes that entered or left the rectangle since the last call are
+     * touched, so dragging costs the same however big the scene is.
+     *
+     * @param drag
+     */
     public void updateSelectRect(Point drag) {
-        for (IShape s : this) {
-            s.setSelected(false);
+        if (selectRect != null) {
+            markDirty(selectRect.getBoundingBox());
+        }
+        if (rubberBand == null) {
+            clearSelection();
+            rubberBand = new ArrayList<IShape>();
+            rubberBandSet.clear();
         }
         if (drag.x > startDrag.x) {
             if (drag.y > startDrag.y) {
                 // top-left to bottom-right
-                selectRect = new SelectionRectangle(startDrag.x, drag.x, startDrag.y, drag.y);
+                setSelectRect(startDrag.x, drag.x, startDrag.y, drag.y);
             } else {
                 // bottom-left to top-right
-                selectRect = new SelectionRectangle(startDrag.x, drag.x, drag.y, startDrag.y);
+                setSelectRect(startDrag.x, drag.x, drag.y, startDrag.y);
             }
         } else {
             if (drag.y > startDrag.y) {
                 // top-right to bottom-left
-                selectRect = new SelectionRectangle(drag.x, startDrag.x, startDrag.y, drag.y);
+                setSelectRect(drag.x, startDrag.x, startDrag.y, drag.y);
             } else {
                 // bottom-left to top-right
-                selectRect = new SelectionRectangle(drag.x, startDrag.x, drag.y, startDrag.y);
+                setSelectRect(drag.x, startDrag.x, drag.y, startDrag.y);
+            }
+        }
+        markDirty(selectRect.getBoundingBox());
+
+        // indexed loops, since iterating a set makes an iterator
+        List<IShape> covered = spareRubberBand;
+        Set<IShape> coveredSet = spareRubberBandSet;
+        select(selectRect, covered);
+        for (int i = 0; i < covered.size(); i++) {
+            coveredSet.add(covered.get(i));
+        }
+        for (int i = 0; i < rubberBand.size(); i++) {
+            IShape s = rubberBand.get(i);
+            if (rubberBandSet.contains(s) && !coveredSet.contains(s)) {
+                s.setSelected(false);  // left the rectangle
+            }
+        }
+        for (int i = 0; i < covered.size(); i++) {
+            IShape s = covered.get(i);
+            if (!rubberBandSet.contains(s)) {
+                s.setSelected(true);  // entered the rectangle
             }
         }
-        List<IShape> selectedShapes = this.select(selectRect);
-        for (IShape s : selectedShapes) {
-            s.setSelected(true);
+        rubberBand.clear();
+        rubberBandSet.clear();
+        spareRubberBand = rubberBand;
+        spareRubberBandSet = rubberBandSet;
+        rubberBand = covered;
+        rubberBandSet = coveredSet;
+    }
+
+    private void setSelectRect(int left, int right, int top, int bottom) {
+        // reuse the rectangle for the whole drag
+        if (selectRect == null) {
+            selectRect = new SelectionRectangle(left, right, top, bottom);
+        } else {
+            selectRect.setBounds(left, right, top, bottom);
         }
     }
 
     public void stopDrag() {
+        if (isDrag && selectRect != null) {
+            markDirty(selectRect.getBoundingBox());
+        }
         this.isDrag = false;
+        this.rubberBand = null;
+        rubberBandSet.clear();
     }
 
     public void startDrag(Point p) {
         this.isDrag = true;
         this.startDrag = p;
+        this.selectRect = null;
+        this.rubberBand = null;
+        rubberBandSet.clear();
     }
 
     /**
      * Draw all the shapes in the scene using the given Graphics object.
      *
+     * Shapes whose bounding box is entirely outside the clip of the
+     * Graphics object are skipped, so repainting a small dirty region only
+     * draws the shapes under it.
+     *
+     * When the Graphics object is scaled down so far that a shape is only a
+     * few pixels across, its bounding box is filled instead, which is much
+     * cheaper than an oval or a rotated rectangle and looks the same at
+     * that size. A shape smaller than a pixel is drawn as the one pixel it
+     * falls on, and only the last such shape on each pixel, the one on
+     * top, is drawn at all, so a zoomed out view of a huge scene costs about one fill per
+     * pixel rather than one draw per shape.
+     *
      * @param g
      */
     public void draw(Graphics g) {
-        for (IShape s : shapeList) {
-            if (s != null) {
-                s.draw(g);
+        drawShapes(g, false);
+        if (isDrag && selectRect != null) {
+            selectRect.draw(g);
+        }
+    }
+
+    /**
+     * Draw only the shapes that are not selected. This is the part of the
+     * scene that stays put while the selection is being dragged around, so
+     * the panel keeps it in a cached image.
+     *
+     * @param g
+     */
+    public void drawUnselected(Graphics g) {
+        drawShapes(g, true);
+    }
+
+    /**
+     * Draw the selected shapes and the selection rectangle. The panel draws
+     * this on top of the cached unselected shapes every frame.
+     *
+     * The selected shapes are drawn in drawing order, so overlapping ones
+     * stack the same way they do in the scene.
+     *
+     * @param g
+     */
+    public void drawSelected(Graphics g) {
+        beginPass(g);
+        cullHidden = false;
+        List<IShape> shapes = getSelectedInDrawOrder();
+        findOverdrawnDots(shapes, false);
+        for (int i = 0; i < shapes.size(); i++) {
+            if (!overdrawnDots.get(i)) {
+                drawIfVisible(shapes.get(i), g);
             }
         }
-        if (isDrag) {
+        queue.end();
+        if (isDrag && selectRect != null) {
             selectRect.draw(g);
         }
     }
 
+    /**
+     * Return the selected shapes in drawing order. A small selection is
+     * sorted by order key, so only a big one walks the whole scene.
+     */
+    List<IShape> getSelectedInDrawOrder() {
+        List<IShape> sorted = new ArrayList<IShape>(selection.size());
+        if (selection.size() * 16 > shapeList.size()) {
+            for (IShape s : shapeList) {
+                if (s.isSelected()) {
+                    sorted.add(s);
+                }
+            }
+            return sorted;
+        }
+        sorted.addAll(selection);
+        final Map<IShape, Long> order = orderKeys;
+        Collections.sort(sorted, new Comparator<IShape>() {
+            public int compare(IShape a, IShape b) {
+                return Long.compare(order.get(a), order.get(b));
+            }
+        });
+        return sorted;
+    }
+
+    private void drawShapes(Graphics g, boolean skipSelected) {
+        beginPass(g);
+        cullHidden = true;
+        passSkipsSelected = skipSelected;
+        if (passClip != null) {
+            passArea += area(passClip);
+        }
+        List<IShape> shapes = shapesUnderClip();
+        shapesCulled += shapeList.size() - shapes.size();
+        findOverdrawnDots(shapes, skipSelected);
+        for (int i = 0; i < shapes.size(); i++) {
+            IShape s = shapes.get(i);
+            if (s == null || (skipSelected && s.isSelected()) || overdrawnDots.get(i)) {
+                continue;
+            }
+            drawIfVisible(s, g);
+        }
+        underClip.clear();
+        queue.end();
+    }
+
+    /**
+     * Return the shapes that may be under the clip of the current pass, in
+     * drawing order. A small clip over a big scene gets its shapes from the
+     * spatial index, sorted back into drawing order, so redrawing a dirty
+     * region doesn't test every shape in the scene. Otherwise this is just
+     * all the shapes.
+     *
+     * The sorted shapes are kept in a list the pass empties when it is done.
+     */
+    private List<IShape> shapesUnderClip() {
+        int size = shapeList.size();
+        if (passClip == null || size < INDEXED_DRAW_MIN_SHAPES
+                || index.estimateQuery(passClip) > size / 4) {
+            return shapeList;
+        }
+        index.query(passClip, underClip);
+        if (underClip.size() > size / 4) {
+            // sorting would cost more than testing everything
+            underClip.clear();
+            return shapeList;
+        }
+        final Map<IShape, Long> order = orderKeys;
+        Collections.sort(underClip, new Comparator<IShape>() {
+            public int compare(IShape a, IShape b) {
+                return Long.compare(order.get(a), order.get(b));
+            }
+        });
+        return underClip;
+    }
+
+    /**
+     * Get ready to draw on the given Graphics object: note its clip, and
+     * how many scene units make a pixel at its scale. The shapes go through
+     * the render queue, which the pass must end.
+     */
+    private void beginPass(Graphics g) {
+        queue.begin(g);
+        java.awt.Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            passClip = null;
+        } else {
+            if (clipBox == null) {
+                clipBox = new BoundingBox(0, 0, 0, 0);
+            }
+            // a unit to spare, since draw() can paint a pixel past the
+            // bounding box and the clip is rounded to whole scene units
+            clipBox.set(clip.x - 1, clip.x + clip.width + 1, clip.y - 1, clip.y + clip.height + 1);
+            passClip = clipBox;
+        }
+        double scale = 1.0;
+        if (g instanceof Graphics2D) {
+            scale = Math.abs(((Graphics2D) g).getTransform().getScaleX());
+        }
+        pixelSize = 1.0 / scale;
+        // a unit, and the pixel Java2D may shift an edge by when it scales
+        occlusionMargin = 1 + (int) Math.ceil(pixelSize);
+        dotColumns = 0;
+        if (pixelSize > 1.0 && passClip != null) {
+            int columns = (int) Math.ceil(clip.width / pixelSize) + 1;
+            int rows = (int) Math.ceil(clip.height / pixelSize) + 1;
+            long cells = (long) columns * rows;
+            if (cells <= MAX_DOT_CELLS) {
+                int words = (int) ((cells + 63) >>> 6);
+                if (dotMask.length < words) {
+                    dotMask = new long[words];
+                } else {
+                    Arrays.fill(dotMask, 0, words, 0L);
+                }
+                dotColumns = columns;
+            }
+        }
+    }
+
+    /**
+     * Mark the shapes of the pass that would be drawn as a pixel that a
+     * shape later in the pass is drawn as too, so the pass can leave them
+     * out. Walking the shapes backwards, the first to claim a pixel is the
+     * one on top, and any before it on that pixel would be painted over.
+     */
+    private void findOverdrawnDots(List<IShape> shapes, boolean skipSelected) {
+        overdrawnDots.clear();
+        if (dotColumns == 0) {
+            return;
+        }
+        for (int i = shapes.size() - 1; i >= 0; i--) {
+            IShape s = shapes.get(i);
+            if (s == null || (skipSelected && s.isSelected())) {
+                continue;
+            }
+            BoundingBox b = s.getBoundingBox();
+            if (!b.intersects(passClip) || extent(b) >= pixelSize) {
+                continue;
+            }
+            int column = Math.max(0, (int) ((b.getLeft() - passClip.getLeft()) / pixelSize));
+            int row = Math.max(0, (int) ((b.getTop() - passClip.getTop()) / pixelSize));
+            int cell = row * dotColumns + column;
+            long bit = 1L << cell;
+            if ((dotMask[cell >>> 6] & bit) != 0) {
+                overdrawnDots.set(i);
+            } else {
+                dotMask[cell >>> 6] |= bit;
+            }
+        }
+    }
+
+    private static int extent(BoundingBox b) {
+        return Math.max(b.getRight() - b.getLeft(), b.getBottom() - b.getTop()) + 1;
+    }
+
+    private void drawIfVisible(IShape s, Graphics g) {
+        BoundingBox b = s.getBoundingBox();
+        if (passClip != null && !b.intersects(passClip)) {
+            shapesCulled++;
+            return;
+        }
+        int extent = extent(b);
+        if (extent < pixelSize) {
+            drawDot(s, b, g);
+        } else if (extent < pixelSize * DETAIL_PIXELS) {
+            drawBox(s, b, g);
+        } else if (cullHidden && worthTestingForOcclusion(s, extent) && isHidden(s, b)) {
+            shapesOccluded++;
+            shapesCulled++;
+            areaHidden += visibleArea(b);
+            return;
+        } else {
+            drawShape(s, g);
+        }
+        if (cullHidden) {
+            areaDrawn += visibleArea(b);
+        }
+    }
+
+    /**
+     * Is the shape covered by an opaque rectangle drawn after it in this
+     * pass? Only a rectangle that covers the shape's top left corner can
+     * cover all of it, so only the occluders filed under that corner are
+     * looked at. Of those drawn after the shape, at most
+     * MAX_OCCLUDER_TESTS are tested for covering it; missing an occluder
+     * just means drawing a shape that didn't need it.
+     *
+     * Small shapes are cheaper to draw than to test, so this is only asked
+     * about the ones worthTestingForOcclusion() lets through.
+     */
+    private boolean isHidden(IShape s, BoundingBox b) {
+        int m = occlusionMargin;
+        occluders.query(b.getLeft(), b.getTop(), candidates);
+        try {
+            long key = orderKeys.get(s);
+            int tests = 0;
+            for (int i = 0; i < candidates.size() && tests < MAX_OCCLUDER_TESTS; i++) {
+                IShape c = candidates.get(i);
+                // the shape itself is never drawn after itself
+                if (orderKeys.get(c) <= key || (passSkipsSelected && c.isSelected())) {
+                    continue;
+                }
+                tests++;
+                Rectangle r = (Rectangle) c;
+                int x = r.getAnchorPoint().x;
+                int y = r.getAnchorPoint().y;
+                // the rectangle paints from x up to but not including x + width
+                if (x <= b.getLeft() - m && b.getRight() + m <= x + r.getWidth()
+                        && y <= b.getTop() - m && b.getBottom() + m <= y + r.getHeight()) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            candidates.clear();
+        }
+    }
+
+    private boolean worthTestingForOcclusion(IShape s, int extent) {
+        if (s instanceof Rectangle && ((Rectangle) s).getRotation() == 0.0) {
+            return extent >= pixelSize * OCCLUSION_MIN_PIXELS_RECT;
+        }
+        return extent >= pixelSize * OCCLUSION_MIN_PIXELS;
+    }
+
+    /**
+     * Is the shape one that hides whatever it covers, drawn the same way
+     * wherever it is, and big enough to hide much?
+     */
+    private static boolean isOccluder(IShape s) {
+        if (!(s instanceof Rectangle)) {
+            return false;
+        }
+        Rectangle r = (Rectangle) s;
+        return r.getRotation() == 0.0 && r.getColor().getAlpha() == 255
+                && r.getWidth() >= MIN_OCCLUDER_SIZE && r.getHeight() >= MIN_OCCLUDER_SIZE;
+    }
+
+    /**
+     * Keep the occluders up to date after the shape was added or changed.
+     */
+    private void fileOccluder(IShape s) {
+        if (isOccluder(s)) {
+            if (occluders.contains(s)) {
+                occluders.update(s);
+            } else {
+                occluders.insert(s);
+            }
+        } else {
+            occluders.remove(s);
+        }
+    }
+
+    private long visibleArea(BoundingBox b) {
+        if (passClip == null) {
+            return 0;
+        }
+        long width = Math.min(b.getRight(), passClip.getRight()) - Math.max(b.getLeft(), passClip.getLeft()) + 1;
+        long height = Math.min(b.getBottom(), passClip.getBottom()) - Math.max(b.getTop(), passClip.getTop()) + 1;
+        return Math.max(width, 0) * Math.max(height, 0);
+    }
+
+    private static long area(BoundingBox b) {
+        return ((long) b.getRight() - b.getLeft() + 1) * ((long) b.getBottom() - b.getTop() + 1);
+    }
+
+    /**
+     * Draw a shape only a few pixels across as its filled bounding box.
+     */
+    private void drawBox(IShape s, BoundingBox b, Graphics g) {
+        queue.fillRect(RenderQueue.getDrawColor(s), b.getLeft(), b.getTop(),
+                b.getRight() - b.getLeft() + 1, b.getBottom() - b.getTop() + 1);
+        shapesDrawn++;
+        shapesSimplified++;
+    }
+
+    /**
+     * Draw a shape smaller than a pixel as a pixel in its color. A shape
+     * landing on a pixel that already got one this pass is skipped, since
+     * it could only paint that same pixel again.
+     */
+    private void drawDot(IShape s, BoundingBox b, Graphics g) {
+        int size = (int) Math.ceil(pixelSize);
+        queue.fillRect(RenderQueue.getDrawColor(s), b.getLeft(), b.getTop(), size, size);
+        shapesDrawn++;
+        shapesSimplified++;
+    }
+
+    private void drawShape(IShape s, Graphics g) {
+        queue.add(s);
+        shapesDrawn++;
+        if (s instanceof Rectangle && ((Rectangle) s).savesTransform()) {
+            transformSaves++;
+        }
+    }
+
+    /**
+     * Return how many shapes the draw methods drew since the counts were
+     * last reset.
+     */
+    public int getShapesDrawn() {
+        return shapesDrawn;
+    }
+
+    /**
+     * Return how many shapes the draw methods skipped because they were
+     * outside the clip or hidden under an opaque rectangle, since the
+     * counts were last reset. Shapes left out because a later shape is
+     * drawn as the same pixel are not counted.
+     */
+    public int getShapesCulled() {
+        return shapesCulled;
+    }
+
+    /**
+     * Return how many of the shapes drawn were too small to be worth
+     * drawing exactly, and were drawn as a box or a pixel instead, since
+     * the counts were last reset.
+     */
+    public int getShapesSimplified() {
+        return shapesSimplified;
+    }
+
+    /**
+     * Return how many times drawing set the color of the Graphics object,
+     * since the counts were last reset. Shapes are drawn in batches of one
+     * color, so this is usually far fewer than the shapes drawn.
+     */
+    public int getColorChanges() {
+        return queue.getColorChanges();
+    }
+
+    /**
+     * Return the cache of the small shapes drawing copies instead of
+     * drawing them again.
+     */
+    public SpriteCache getSpriteCache() {
+        return queue.getSpriteCache();
+    }
+
+    /**
+     * Return how many of the shapes drawn had to save and restore the
+     * Graphics transform, since the counts were last reset.
+     */
+    public int getTransformSaves() {
+        return transformSaves;
+    }
+
+    /**
+     * Return how many of the shapes culled were hidden under an opaque
+     * rectangle drawn later, since the counts were last reset.
+     */
+    public int getShapesOccluded() {
+        return shapesOccluded;
+    }
+
+    /**
+     * Return the area the shapes below the selection painted over the
+     * area they were drawn in, since the counts were last reset. More than
+     * 1 means shapes were painted over one another. Only passes with a
+     * clip count.
+     */
+    public double getOverdrawRatio() {
+        return passArea == 0 ? 0.0 : (double) areaDrawn / passArea;
+    }
+
+    /**
+     * Return what the overdraw ratio would have been if the hidden shapes
+     * had been drawn too.
+     */
+    public double getOverdrawRatioWithHidden() {
+        return passArea == 0 ? 0.0 : (double) (areaDrawn + areaHidden) / passArea;
+    }
+
+    public void resetDrawCounts() {
+        shapesOccluded = 0;
+        passArea = 0;
+        areaDrawn = 0;
+        areaHidden = 0;
+        shapesDrawn = 0;
+        shapesCulled = 0;
+        shapesSimplified = 0;
+        transformSaves = 0;
+        queue.resetCounts();
+    }
+
+    /**
+     * Return the areas of the canvas that changed since the last call, and
+     * start collecting again. Each area is the union of the old and new
+     * bounding boxes of the shapes that changed there.
+     *
+     * @return
+     */
+    public List<BoundingBox> takeDirtyRegions() {
+        List<BoundingBox> regions = dirtyRegions;
+        dirtyRegions = new ArrayList<BoundingBox>();
+        return regions;
+    }
+
+    /**
+     * Return the areas where the unselected shapes changed since the last
+     * call, and start collecting again. These are the parts of the panel's
+     * cached image of unselected shapes that are out of date. A shape
+     * becoming selected or unselected counts, since it moves between the
+     * cached image and the live layer.
+     *
+     * @return
+     */
+    public List<BoundingBox> takeStaticDirtyRegions() {
+        List<BoundingBox> regions = staticDirtyRegions;
+        staticDirtyRegions = new ArrayList<BoundingBox>();
+        return regions;
+    }
+
+    private void markDirty(BoundingBox box) {
+        addRegion(dirtyRegions, box);
+    }
+
+    private void markDirty(IShape shape, BoundingBox box) {
+        addRegion(dirtyRegions, box);
+        if (!shape.isSelected()) {
+            addRegion(staticDirtyRegions, box);
+        }
+    }
+
+    private static void addRegion(List<BoundingBox> regions, BoundingBox box) {
+        mergeRegion(regions, box, false);
+    }
+
+    /**
+     * Merge the box with any region it touches, so the list stays short.
+     * Regions grow in place, and the box is only copied if it ends up as a
+     * region of its own, so a drag creates no garbage.
+     */
+    private static void mergeRegion(List<BoundingBox> regions, BoundingBox box, boolean owned) {
+        for (int i = 0; i < regions.size(); i++) {
+            BoundingBox region = regions.get(i);
+            if (region.intersects(box)) {
+                regions.remove(i);
+                region.add(box);
+                mergeRegion(regions, region, true);
+                return;
+            }
+        }
+        regions.add(owned ? box : new BoundingBox(box));
+        if (regions.size() > MAX_DIRTY_REGIONS) {
+            // too scattered to be worth tracking separately
+            BoundingBox all = regions.get(0);
+            for (BoundingBox region : regions) {
+                all.add(region);
+            }
+            regions.clear();
+            regions.add(all);
+        }
+    }
+
+    /**
+     * Return the number of shapes in the scene.
+     */
+    public int size() {
+        return shapeList.size();
+    }
+
     /**
      * Get an iterator that can iterate through all the shapes in the scene.
      */
@@ -89,16 +761,22 @@ public class Scene implements Iterable<IShape>, Cloneable {
     /**
      * Return a list of shapes that contain the given point.
      *
+     * Only the shapes the spatial index files near the point are tested, so
+     * the shapes are not necessarily returned in drawing order.
+     *
      * @param point The point
      * @return A list of shapes that contain the given point.
      */
     public List<IShape> select(Point point) {
-        List<IShape> selected = new LinkedList<IShape>();
-        for (IShape s : shapeList) {
+        List<IShape> selected = new ArrayList<IShape>();
+        index.query(point.x, point.y, candidates);
+        for (int i = 0; i < candidates.size(); i++) {
+            IShape s = candidates.get(i);
             if (s.contains(point)) {
                 selected.add(s);
             }
         }
+        candidates.clear();
         return selected;
     }
 
@@ -109,13 +787,32 @@ public class Scene implements Iterable<IShape>, Cloneable {
      * @return A list of shapes intersecting the given shape.
      */
     public List<IShape> select(IShape shape) {
-        List<IShape> selected = new LinkedList<IShape>();
-        for (IShape s : shapeList) {
+        List<IShape> selected = new ArrayList<IShape>();
+        select(shape, selected);
+        return selected;
+    }
+
+    /**
+     * Add the shapes in the scene that intersect the given shape to the
+     * given collection. Allocates nothing of its own, so the selection
+     * rectangle can use it on every drag event.
+     */
+    void select(IShape shape, Collection<IShape> selected) {
+        BoundingBox box = shape.getBoundingBox();
+        // a shape over much of the scene is quicker to test against every
+        // shape than to look up in the index
+        List<IShape> tested = shapeList;
+        if (index.estimateQuery(box) <= shapeList.size() / 4) {
+            index.query(box, candidates);
+            tested = candidates;
+        }
+        for (int i = 0; i < tested.size(); i++) {
+            IShape s = tested.get(i);
             if (s.intersects(shape)) {
                 selected.add(s);
             }
         }
-        return selected;
+        candidates.clear();
     }
 
     /**
@@ -125,7 +822,31 @@ public class Scene implements Iterable<IShape>, Cloneable {
      * @param s
      */
     public void addShape(IShape s) {
-        shapeList.add(s);
+        insertShape(shapeList.size(), s);
+    }
+
+    /**
+     * Add a shape at the given position in the drawing order. Used to put
+     * removed shapes back where they were.
+     *
+     * @param position
+     * @param s
+     */
+    void insertShape(int position, IShape s) {
+        long key = orderKeyAt(position);
+        shapeList.add(position, s);
+        orderKeys.put(s, key);
+        addedShapes.add(s);
+        geometryVersion++;
+        index.insert(s);
+        fileOccluder(s);
+        s.setListener(this);
+        version++;
+        contentHash += spread(s.contentHash());
+        if (s.isSelected()) {
+            selection.add(s);
+        }
+        markDirty(s, s.getBoundingBox());
     }
 
     /**
@@ -134,57 +855,539 @@ public class Scene implements Iterable<IShape>, Cloneable {
      * @param shapesToRemove
      */
     public void removeShapes(Collection<IShape> shapesToRemove) {
-        shapeList.removeAll(shapesToRemove);
+        final Set<IShape> toRemove = Collections.newSetFromMap(new IdentityHashMap<>());
+        toRemove.addAll(shapesToRemove);
+        if (toRemove.isEmpty()) {
+            return;
+        }
+        final boolean removingAll = toRemove.size() >= shapeList.size() && toRemove.containsAll(shapeList);
+        if (removingAll) {
+            // cheaper than taking the shapes out of the cells one by one
+            index.clear();
+            occluders.clear();
+        }
+        // one pass that closes up the gaps as it goes; removing the shapes
+        // one at a time would shift the rest of the list every time
+        shapeList.removeIf(new Predicate<IShape>() {
+            public boolean test(IShape s) {
+                if (!toRemove.contains(s)) {
+                    return false;
+                }
+                forget(s, !removingAll);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Return an order key for a shape about to be inserted at the given
+     * position: halfway between the keys of its neighbours, or a fixed
+     * step past the last key for a shape added at the end.
+     *
+     * A removed shape leaves its gap behind, so putting it back, as undo
+     * does, finds the same room it had. Only about 32 insertions into the
+     * same gap in a row use the room up, and then all keys are handed out
+     * afresh.
+     */
+    private long orderKeyAt(int position) {
+        long before = position > 0 ? orderKeys.get(shapeList.get(position - 1)) : 0;
+        if (position == shapeList.size()) {
+            if (before <= Long.MAX_VALUE - ORDER_KEY_STEP) {
+                return before + ORDER_KEY_STEP;
+            }
+        } else {
+            long after = orderKeys.get(shapeList.get(position));
+            if (after - before >= 2) {
+                return before + Math.min((after - before) / 2, ORDER_KEY_STEP);
+            }
+        }
+        renumberOrderKeys();
+        return orderKeyAt(position);
+    }
+
+    /**
+     * Give the shapes evenly spaced order keys again. Publishes first, so
+     * that the copies in the last snapshot are exactly the shapes in the
+     * scene and can simply be filed under the new keys.
+     */
+    private void renumberOrderKeys() {
+        publish();
+        int n = shapeList.size();
+        long[] keys = new long[n];
+        Object[] copies = new Object[n];
+        frozenShapes.copyTo(keys, copies);
+        for (int i = 0; i < n; i++) {
+            keys[i] = (i + 1) * ORDER_KEY_STEP;
+            orderKeys.put(shapeList.get(i), keys[i]);
+        }
+        frozenShapes = PersistentRankTree.of(keys, copies, n);
+    }
+
+    /**
+     * Do the bookkeeping for a shape that is leaving the scene.
+     */
+    private void forget(IShape s, boolean unindex) {
+        version++;
+        geometryVersion++;
+        contentHash -= spread(s.contentHash());
+        if (unindex) {
+            index.remove(s);
+            occluders.remove(s);
+        }
+        s.setListener(null);
+        long key = orderKeys.remove(s);
+        if (!addedShapes.remove(s)) {
+            // the last snapshot has a copy of it, which has to go
+            if (removedCount == removedKeys.length) {
+                removedKeys = Arrays.copyOf(removedKeys, removedCount * 2);
+            }
+            removedKeys[removedCount++] = key;
+            staleShapes.remove(s);
+        }
+        selection.remove(s);
+        // left in the list, which is only walked for what is in the set
+        rubberBandSet.remove(s);
+        markDirty(s, s.getBoundingBox());
+    }
+
+    /**
+     * Return the selected shapes, in the order they were selected.
+     *
+     * The scene keeps track of its selected shapes as they are selected and
+     * deselected, so this doesn't look at the rest of the scene.
+     *
+     * @return
+     */
+    public List<IShape> getSelectedShapes() {
+        return new ArrayList<IShape>(selection);
+    }
+
+    public int getSelectedCount() {
+        return selection.size();
+    }
+
+    /**
+     * Deselect every selected shape. Only the selected shapes are visited.
+     */
+    public void clearSelection() {
+        for (IShape s : getSelectedShapes()) {
+            s.setSelected(false);
+        }
+    }
+
+    /**
+     * Perform the given edit on this scene and record it in the undo
+     * history.
+     *
+     * @param edit
+     */
+    public void apply(Edit edit) {
+        edit.redo(this);
+        if (transaction != null) {
+            transaction.add(edit);
+        } else {
+            history.record(edit);
+            publish();
+        }
+    }
+
+    /**
+     * Start a transaction. Until the matching commitTransaction(), edits
+     * passed to apply() still change the scene right away, but they are
+     * collected and recorded in the history as one edit when the
+     * transaction is committed. Used to make a whole mouse gesture a single
+     * undo step.
+     *
+     * Transactions nest; only the outermost commit records anything.
+     */
+    public void beginTransaction() {
+        if (transactionDepth == 0) {
+            transaction = new CompoundEdit();
+        }
+        transactionDepth++;
+    }
+
+    /**
+     * Finish the current transaction.
+     *
+     * @return true if the outermost transaction was committed and changed
+     * the scene
+     */
+    public boolean commitTransaction() {
+        if (transactionDepth == 0) {
+            return false;
+        }
+        transactionDepth--;
+        if (transactionDepth > 0) {
+            return false;
+        }
+        CompoundEdit finished = transaction;
+        transaction = null;
+        if (finished.isEmpty()) {
+            return false;
+        }
+        history.record(finished);
+        publish();
+        return true;
+    }
+
+    public boolean isInTransaction() {
+        return transactionDepth > 0;
+    }
+
+    /**
+     * Take back the most recent edit. Any open transaction is committed
+     * first, so it is the edit that gets undone.
+     *
+     * @return false if there was nothing to undo
+     */
+    public boolean undo() {
+        commitOpenTransaction();
+        if (!history.undo(this)) {
+            return false;
+        }
+        publish();
+        return true;
+    }
+
+    /**
+     * Apply the most recently undone edit again.
+     *
+     * @return false if there was nothing to redo
+     */
+    public boolean redo() {
+        commitOpenTransaction();
+        if (!history.redo(this)) {
+            return false;
+        }
+        publish();
+        return true;
+    }
+
+    private void commitOpenTransaction() {
+        if (transactionDepth > 0) {
+            transactionDepth = 1;
+            commitTransaction();
+        }
+    }
+
+    public UndoHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Return a number that goes up every time the scene changes: a shape
+     * is added, removed, moved, resized, rotated, recolored, selected or
+     * deselected. Compare it with an earlier value to tell in constant time
+     * whether anything changed.
+     *
+     * @return
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Return a number that goes up every time a shape is added, removed,
+     * moved, resized or rotated, but not when one is only recolored,
+     * selected or deselected. Anything that only depends on which shape
+     * covers which point can compare it to tell whether it is out of date.
+     *
+     * @return
+     */
+    public long getGeometryVersion() {
+        return geometryVersion;
+    }
+
+    /**
+     * Return a number that goes up every time a shape is selected or
+     * deselected. The panel draws the selection on top of everything
+     * else, so this changes which shape covers which pixel too.
+     *
+     * @return
+     */
+    public long getSelectionVersion() {
+        return selectionVersion;
+    }
+
+    /**
+     * Return a hash of the shapes in the scene, kept up to date as shapes
+     * change. Scenes with the same shapes have the same hash, whatever the
+     * history that led to them. The drawing order is not part of the hash.
+     *
+     * @return
+     */
+    public long getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Scramble a shape's content hash before adding it to the scene's, so
+     * similar shapes don't cancel out in the sum.
+     */
+    private static long spread(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * Return the last published snapshot of the scene. Safe to call from
+     * any thread.
+     *
+     * The scene publishes a snapshot whenever an edit is committed, so the
+     * snapshot does not show a drag that is still going on, or shapes added
+     * with addShape() since. Call publish() first to get the current state.
+     *
+     * @return
+     */
+    public SceneSnapshot snapshot() {
+        return published;
+    }
+
+    /**
+     * Publish a snapshot of the scene as it is now, and return it. Only
+     * call this from the thread that edits the scene.
+     *
+     * Snapshots share structure: only the shapes that changed since the last
+     * snapshot are copied, so publishing after a small edit is cheap however
+     * big the scene is.
+     *
+     * @return
+     */
+    public SceneSnapshot publish() {
+        if (version == published.getVersion()) {
+            return published;
+        }
+        // only worked out for a listener that wants them
+        List<SceneChange> changes = snapshotListener != null ? new ArrayList<SceneChange>() : null;
+        PersistentRankTree<IShape> shapes = frozenShapes;
+        int edits = removedCount + addedShapes.size() + staleShapes.size();
+        if (edits > shapes.size() / REBUILD_FRACTION) {
+            // so much changed that going through the list once is cheaper
+            shapes = rebuildSnapshot(changes);
+        } else {
+            // each edit finds its place through the order keys, in log time
+            for (int i = 0; i < removedCount; i++) {
+                long key = removedKeys[i];
+                addChange(changes, SceneChange.Kind.REMOVE, shapes.rank(key), null);
+                shapes = shapes.remove(key);
+            }
+            for (IShape s : staleShapes) {
+                long key = orderKeys.get(s);
+                IShape copy = s.copy();
+                shapes = shapes.put(key, copy);
+                addChange(changes, SceneChange.Kind.SET, shapes.rank(key), copy);
+            }
+            for (IShape s : addedShapes) {
+                long key = orderKeys.get(s);
+                IShape copy = s.copy();
+                shapes = shapes.put(key, copy);
+                addChange(changes, SceneChange.Kind.INSERT, shapes.rank(key), copy);
+            }
+        }
+        addedShapes = emptied(addedShapes);
+        staleShapes = emptied(staleShapes);
+        removedCount = 0;
+        if (removedKeys.length > MAX_KEPT_EDITS) {
+            removedKeys = new long[16];
+        }
+        frozenShapes = shapes;
+        published = new SceneSnapshot(shapes, version, contentHash, changes);
+        if (snapshotListener != null) {
+            snapshotListener.snapshotPublished(published);
+        }
+        return published;
+    }
+
+    /**
+     * Return the given set emptied, or a new one if it was big: clearing an
+     * identity set takes as long as its table, which stays as big as the
+     * set ever was, and a publish after loading a big scene must not leave
+     * every later publish paying for that.
+     */
+    private static Set<IShape> emptied(Set<IShape> set) {
+        if (set.size() > MAX_KEPT_EDITS) {
+            return Collections.newSetFromMap(new IdentityHashMap<>());
+        }
+        set.clear();
+        return set;
+    }
+
+    /**
+     * Build the next snapshot's tree from the shape list in one pass,
+     * keeping the copies of the shapes that didn't change. The old tree is
+     * walked alongside, in the same order, to tell what was removed.
+     */
+    private PersistentRankTree<IShape> rebuildSnapshot(List<SceneChange> changes) {
+        int oldCount = frozenShapes.size();
+        long[] oldKeys = new long[oldCount];
+        Object[] oldCopies = new Object[oldCount];
+        frozenShapes.copyTo(oldKeys, oldCopies);
+        int n = shapeList.size();
+        long[] keys = new long[n];
+        Object[] copies = new Object[n];
+        // the next shape of the old snapshot not yet accounted for
+        int old = 0;
+        for (int i = 0; i < n; i++) {
+            IShape s = shapeList.get(i);
+            keys[i] = orderKeys.get(s);
+            // everything with a smaller key was removed
+            for (; old < oldCount && oldKeys[old] < keys[i]; old++) {
+                addChange(changes, SceneChange.Kind.REMOVE, i, null);
+            }
+            if (addedShapes.contains(s)) {
+                // may still have a copy under the same key, from before it was
+                // removed and put back
+                if (old < oldCount && oldKeys[old] == keys[i]) {
+                    addChange(changes, SceneChange.Kind.REMOVE, i, null);
+                    old++;
+                }
+                copies[i] = s.copy();
+                addChange(changes, SceneChange.Kind.INSERT, i, (IShape) copies[i]);
+            } else {
+                if (staleShapes.contains(s)) {
+                    copies[i] = s.copy();
+                    addChange(changes, SceneChange.Kind.SET, i, (IShape) copies[i]);
+                } else {
+                    copies[i] = oldCopies[old];
+                }
+                old++;
+            }
+        }
+        for (; old < oldCount; old++) {
+            addChange(changes, SceneChange.Kind.REMOVE, n, null);
+        }
+        return PersistentRankTree.of(keys, copies, n);
+    }
+
+    private static void addChange(List<SceneChange> changes, SceneChange.Kind kind, int index, IShape shape) {
+        if (changes != null) {
+            changes.add(new SceneChange(kind, index, shape));
+        }
+    }
+
+    /**
+     * Set the object to tell about every snapshot the scene publishes, or
+     * null for none. While there is a listener, each snapshot also records
+     * how it differs from the one before.
+     *
+     * @param listener
+     */
+    public void setSnapshotListener(ISnapshotListener listener) {
+        this.snapshotListener = listener;
+    }
+
+    private void markStale(IShape shape) {
+        if (orderKeys.containsKey(shape) && !addedShapes.contains(shape)) {
+            staleShapes.add(shape);
+        }
+    }
+
+    /**
+     * Keep the spatial index in sync when one of our shapes moves or is
+     * resized, and remember both where it was and where it is now as
+     * needing a repaint.
+     */
+    @Override
+    public void boundsChanged(IShape shape, BoundingBox oldBounds) {
+        geometryVersion++;
+        index.update(shape);
+        fileOccluder(shape);
+        markDirty(shape, oldBounds);
+        markDirty(shape, shape.getBoundingBox());
+    }
+
+    @Override
+    public void appearanceChanged(IShape shape) {
+        restyled = shape;
+        // a see-through color stops the shape hiding what is under it
+        fileOccluder(shape);
+        markDirty(shape, shape.getBoundingBox());
+    }
+
+    @Override
+    public void selectedChanged(IShape shape) {
+        restyled = shape;
+        selectionVersion++;
+        if (shape.isSelected()) {
+            selection.add(shape);
+        } else {
+            selection.remove(shape);
+        }
+        // the shape moved between the cached unselected layer and the live one
+        markDirty(shape.getBoundingBox());
+        addRegion(staticDirtyRegions, shape.getBoundingBox());
+    }
+
+    @Override
+    public void contentChanged(IShape shape, long oldHash) {
+        version++;
+        // a change that isn't the follow-up of a color or selection change
+        // is one to the shape's geometry, like a rotation
+        if (shape != restyled) {
+            geometryVersion++;
+        }
+        restyled = null;
+        contentHash += spread(shape.contentHash()) - spread(oldHash);
+        // a turned rectangle no longer hides what is under it
+        fileOccluder(shape);
+        markStale(shape);
+        // covers changes that don't move the shape
+        markDirty(shape, shape.getBoundingBox());
     }
 
     @Override
     public String toString() {
-        String shapeText = "";
+        StringBuilder shapeText = new StringBuilder();
         for (IShape s : shapeList) {
-            shapeText += s.toString() + "\n";
+            shapeText.append(s.toString()).append('\n');
         }
-        return shapeText;
+        return shapeText.toString();
     }
 
     @Override
     public Scene clone() throws CloneNotSupportedException {
         Scene cloned = (Scene) super.clone();
-        cloned.shapeList = new LinkedList<>();
+        cloned.shapeList = new ArrayList<>();
+        cloned.index = new SpatialIndex();
+        cloned.occluders = new SpatialIndex();
+        cloned.history = new UndoHistory(history.getMaxDepth());
+        cloned.transaction = null;
+        cloned.transactionDepth = 0;
+        cloned.dirtyRegions = new ArrayList<BoundingBox>();
+        cloned.staticDirtyRegions = new ArrayList<BoundingBox>();
+        cloned.selection = new LinkedHashSet<IShape>();
+        cloned.rubberBand = null;
+        cloned.rubberBandSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        cloned.spareRubberBand = new ArrayList<IShape>();
+        cloned.spareRubberBandSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        cloned.candidates = new ArrayList<IShape>();
+        cloned.underClip = new ArrayList<IShape>();
+
+        cloned.published = SceneSnapshot.EMPTY;
+        cloned.frozenShapes = PersistentRankTree.empty();
+        cloned.addedShapes = Collections.newSetFromMap(new IdentityHashMap<>());
+        cloned.removedKeys = new long[16];
+        cloned.removedCount = 0;
+        cloned.staleShapes = Collections.newSetFromMap(new IdentityHashMap<>());
+        cloned.orderKeys = new IdentityHashMap<IShape, Long>();
+        cloned.version = 0;
+        cloned.geometryVersion = 0;
+        cloned.selectionVersion = 0;
+        cloned.restyled = null;
+        cloned.contentHash = 0;
+        cloned.snapshotListener = null;
+        cloned.passClip = null;
+        cloned.clipBox = null;
+        cloned.dotMask = new long[0];
+        cloned.overdrawnDots = new BitSet();
+        cloned.queue = new RenderQueue();
 
         for (IShape shape : this.shapeList) {
-            if (shape instanceof Square) {
-                Square sq = (Square) shape;
-                Point anchorPoint = new Point(sq.getAnchorPoint()); // Create new Point object
-                Square newSquare = new Square(
-                        new Color(sq.getColor().getRGB()),
-                        anchorPoint.x,
-                        anchorPoint.y,
-                        sq.getSize()
-                );
-                newSquare.setSelected(sq.isSelected());
-                cloned.shapeList.add(newSquare);
-            } else if (shape instanceof Circle) {
-                Circle c = (Circle) shape;
-                Point anchorPoint = new Point(c.getAnchorPoint()); // Create new Point object
-                Circle newCircle = new Circle(
-                        new Color(c.getColor().getRGB()),
-                        anchorPoint,
-                        c.getRadius() * 2
-                );
-                newCircle.setSelected(c.isSelected());
-                cloned.shapeList.add(newCircle);
-            } else if (shape instanceof Rectangle && !(shape instanceof Square)) {
-                Rectangle r = (Rectangle) shape;
-                Point anchorPoint = new Point(r.getAnchorPoint()); // Create new Point object
-                Rectangle newRect = new Rectangle(
-                        anchorPoint,
-                        r.getWidth(),
-                        r.getHeight(),
-                        new Color(r.getColor().getRGB())
-                );
-                newRect.setSelected(r.isSelected());
-                cloned.shapeList.add(newRect);
-            }
+            cloned.addShape(shape.copy());
         }
 
         // Clone drag state
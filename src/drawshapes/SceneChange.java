@@ -0,0 +1,31 @@
+package drawshapes;
+
+/**
+ * One step of the difference between two snapshots of a scene.
+ *
+ * Applying the changes of a snapshot in order to the list of shapes of the
+ * snapshot before it gives the list of shapes of the snapshot. Indexes are
+ * positions in the list as it is at that step.
+ */
+final class SceneChange {
+
+    enum Kind {
+        // replace the shape at the index
+        SET,
+        // insert the shape at the index
+        INSERT,
+        // remove the shape at the index
+        REMOVE
+    }
+
+    final Kind kind;
+    final int index;
+    // the snapshot's copy of the shape, or null for REMOVE
+    final IShape shape;
+
+    SceneChange(Kind kind, int index, IShape shape) {
+        this.kind = kind;
+        this.index = index;
+        this.shape = shape;
+    }
+}
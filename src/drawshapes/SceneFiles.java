@@ -0,0 +1,79 @@
+package drawshapes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Utilities for opening, saving and converting scene files in either the
+ * text format (SceneReader/SceneWriter) or the binary format
+ * (BinarySceneReader/BinarySceneWriter).
+ *
+ * Files are read in whichever format they are in, and saved in the binary
+ * format when their name ends in BINARY_EXTENSION.
+ */
+public class SceneFiles {
+
+    public static final String BINARY_EXTENSION = ".dsb";
+
+    // private constructor
+    private SceneFiles() {
+    }
+
+    /**
+     * Open a scene file for reading, in whichever format it is in.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static IShapeReader open(Path file) throws IOException {
+        if (BinarySceneReader.isBinary(file)) {
+            return new BinarySceneReader(file);
+        }
+        InputStream in = Files.newInputStream(file);
+        return new SceneReader(in);
+    }
+
+    /**
+     * Save shapes to a file, in the binary format if the file name ends in
+     * BINARY_EXTENSION and the text format otherwise.
+     *
+     * @param shapes
+     * @param file
+     * @throws IOException
+     */
+    public static void save(Iterable<IShape> shapes, Path file) throws IOException {
+        if (isBinaryName(file)) {
+            BinarySceneWriter.write(shapes, file);
+        } else {
+            SceneWriter.write(shapes, file);
+        }
+    }
+
+    /**
+     * Convert a scene file between the text and binary formats. The format
+     * of the new file is picked from its name, as in save().
+     *
+     * @param from
+     * @param to
+     * @throws IOException
+     */
+    public static void convert(Path from, Path to) throws IOException {
+        List<IShape> shapes = new ArrayList<IShape>();
+        try (IShapeReader reader = open(from)) {
+            IShape shape;
+            while ((shape = reader.readShape()) != null) {
+                shapes.add(shape);
+            }
+        }
+        save(shapes, to);
+    }
+
+    public static boolean isBinaryName(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(BINARY_EXTENSION);
+    }
+}
@@ -0,0 +1,257 @@
+package drawshapes;
+
+import java.awt.Color;
+import java.awt.Point;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads shapes from the text format used by Save, one shape per line:
+ *
+ * <pre>
+ * SQUARE x y size color [selected]
+ * CIRCLE x y diameter color [selected]
+ * RECTANGLE x y width height color [selected] [rotation]
+ * </pre>
+ *
+ * where x and y are the top-left corner of the shape.
+ *
+ * The input is read in large blocks and parsed byte by byte, without
+ * building a String for each line or token, so huge files load quickly.
+ * Shapes are returned one at a time so the caller can report progress
+ * and stop early. Lines with an unknown shape type are skipped.
+ */
+public class SceneReader implements IShapeReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_TOKEN = 64;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private long bytesRead;
+    private int lineNumber;
+
+    private final byte[] token = new byte[MAX_TOKEN];
+    private int tokenLength;
+
+    public SceneReader(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public IShape readShape() throws IOException {
+        while (peek() != -1) {
+            lineNumber++;
+            IShape shape = readLine();
+            skipLine();
+            if (shape != null) {
+                return shape;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead - (limit - position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private IShape readLine() throws IOException {
+        if (!nextToken()) {
+            return null;  // blank line
+        }
+        if (tokenIs("SQUARE")) {
+            int x = nextInt();
+            int y = nextInt();
+            int size = nextInt();
+            Color color = nextColor();
+            Square square = new Square(color, x + size / 2, y + size / 2, size);
+            readOptions(square);
+            return square;
+        } else if (tokenIs("CIRCLE")) {
+            int x = nextInt();
+            int y = nextInt();
+            int diameter = nextInt();
+            Color color = nextColor();
+            Circle circle = new Circle(color, new Point(x + diameter / 2, y + diameter / 2), diameter);
+            readOptions(circle);
+            return circle;
+        } else if (tokenIs("RECTANGLE")) {
+            int x = nextInt();
+            int y = nextInt();
+            int width = nextInt();
+            int height = nextInt();
+            Color color = nextColor();
+            Rectangle rect = new Rectangle(new Point(x + width / 2, y + height / 2), width, height, color);
+            readOptions(rect);
+            return rect;
+        }
+        return null;
+    }
+
+    /**
+     * Read the optional selected flag and rotation at the end of a line.
+     */
+    private void readOptions(IShape shape) throws IOException {
+        while (nextToken()) {
+            if (tokenIs("true")) {
+                shape.setSelected(true);
+            } else if (tokenIs("false")) {
+                shape.setSelected(false);
+            } else if (shape instanceof Rectangle) {
+                ((Rectangle) shape).rotate(tokenAsDouble());
+            }
+        }
+    }
+
+    private int nextInt() throws IOException {
+        if (!nextToken()) {
+            throw error("expected a number");
+        }
+        int i = 0;
+        boolean negative = false;
+        if (token[0] == '-' || token[0] == '+') {
+            negative = token[0] == '-';
+            i++;
+        }
+        if (i == tokenLength) {
+            throw error("expected a number");
+        }
+        long value = 0;
+        for (; i < tokenLength; i++) {
+            int digit = token[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw error("expected a number");
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE) {
+                throw error("number too large");
+            }
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    private double tokenAsDouble() throws IOException {
+        int i = 0;
+        boolean negative = false;
+        if (token[0] == '-' || token[0] == '+') {
+            negative = token[0] == '-';
+            i++;
+        }
+        double value = 0;
+        double scale = 0;
+        boolean digits = false;
+        for (; i < tokenLength; i++) {
+            byte b = token[i];
+            if (b == '.' && scale == 0) {
+                scale = 1;
+            } else if (b >= '0' && b <= '9') {
+                digits = true;
+                value = value * 10 + (b - '0');
+                if (scale != 0) {
+                    scale *= 10;
+                }
+            } else {
+                throw error("expected a rotation");
+            }
+        }
+        if (!digits) {
+            throw error("expected a rotation");
+        }
+        if (scale != 0) {
+            value /= scale;
+        }
+        return negative ? -value : value;
+    }
+
+    private Color nextColor() throws IOException {
+        if (!nextToken()) {
+            throw error("expected a color");
+        }
+        // same names and default as Util.stringToColor
+        if (tokenIs("BLUE")) {
+            return Color.BLUE;
+        } else if (tokenIs("GREEN")) {
+            return Color.GREEN;
+        } else if (tokenIs("YELLOW")) {
+            return Color.YELLOW;
+        } else if (tokenIs("BLACK")) {
+            return Color.BLACK;
+        }
+        return Color.RED;
+    }
+
+    private boolean tokenIs(String word) {
+        if (word.length() != tokenLength) {
+            return false;
+        }
+        for (int i = 0; i < tokenLength; i++) {
+            if (Character.toUpperCase(token[i]) != Character.toUpperCase(word.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read the next space-separated token on the current line into the
+     * token buffer.
+     *
+     * @return false if there are no more tokens on this line
+     */
+    private boolean nextToken() throws IOException {
+        int b = peek();
+        while (b == ' ' || b == '\t' || b == '\r') {
+            position++;
+            b = peek();
+        }
+        if (b == '\n' || b == -1) {
+            return false;
+        }
+        tokenLength = 0;
+        while (b != ' ' && b != '\t' && b != '\r' && b != '\n' && b != -1) {
+            if (tokenLength == MAX_TOKEN) {
+                throw error("token too long");
+            }
+            token[tokenLength++] = (byte) b;
+            position++;
+            b = peek();
+        }
+        return true;
+    }
+
+    private void skipLine() throws IOException {
+        int b = peek();
+        while (b != '\n' && b != -1) {
+            position++;
+            b = peek();
+        }
+        if (b == '\n') {
+            position++;
+        }
+    }
+
+    private int peek() throws IOException {
+        if (position == limit) {
+            int n = in.read(buffer, 0, buffer.length);
+            if (n <= 0) {
+                return -1;
+            }
+            position = 0;
+            limit = n;
+            bytesRead += n;
+        }
+        return buffer[position] & 0xff;
+    }
+
+    private IOException error(String message) {
+        return new IOException("Line " + lineNumber + ": " + message);
+    }
+}
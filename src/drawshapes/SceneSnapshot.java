@@ -0,0 +1,76 @@
+package drawshapes;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A consistent, unchanging picture of a scene at one moment.
+ *
+ * Snapshots are cheap to take and safe to use from any thread while the
+ * scene itself keeps being edited on the Swing event thread, which makes
+ * them the way to render, save or index a scene in the background.
+ *
+ * The shapes in a snapshot are private copies that the scene shares
+ * between snapshots. They must not be modified.
+ */
+public class SceneSnapshot implements Iterable<IShape> {
+
+    static final SceneSnapshot EMPTY = new SceneSnapshot(PersistentRankTree.<IShape>empty(), 0, 0, null);
+
+    private final PersistentRankTree<IShape> shapes;
+    private final long version;
+    private final long contentHash;
+    private final List<SceneChange> changes;
+
+    SceneSnapshot(PersistentRankTree<IShape> shapes, long version, long contentHash, List<SceneChange> changes) {
+        this.shapes = shapes;
+        this.version = version;
+        this.contentHash = contentHash;
+        this.changes = changes;
+    }
+
+    /**
+     * Return the version of the scene this is a snapshot of, see
+     * Scene.getVersion(). A later snapshot of the same scene has a larger
+     * version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Return the content hash the scene had when this snapshot was taken.
+     * See Scene.getContentHash().
+     */
+    public long getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Return the changes that turn the previous snapshot of the scene into
+     * this one, or null if the scene did not keep track of them. Scenes
+     * only do that while they have a snapshot listener.
+     */
+    List<SceneChange> getChanges() {
+        return changes;
+    }
+
+    public int size() {
+        return shapes.size();
+    }
+
+    /**
+     * Return the shape at the given position in the drawing order.
+     */
+    public IShape get(int index) {
+        return shapes.get(index);
+    }
+
+    /**
+     * Iterate through the shapes in drawing order.
+     */
+    @Override
+    public Iterator<IShape> iterator() {
+        return shapes.iterator();
+    }
+}
@@ -0,0 +1,157 @@
+package drawshapes;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes shapes in the text format read by SceneReader, one shape per
+ * line, with x and y as the top-left corner:
+ *
+ * <pre>
+ * SQUARE x y size color selected [rotation]
+ * CIRCLE x y diameter color selected
+ * RECTANGLE x y width height color selected [rotation]
+ * </pre>
+ *
+ * The rotation is only written when a rectangle is actually rotated.
+ *
+ * Shapes are streamed straight into a buffered writer, so saving takes
+ * time proportional to the number of shapes and never builds the whole
+ * file in memory.
+ */
+public class SceneWriter implements Closeable {
+
+    private final Writer out;
+    // scratch space for formatting numbers without making Strings
+    private final char[] digits = new char[20];
+
+    public SceneWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Save the shapes to the given file. The shapes are written to a
+     * temporary file next to it, which is then renamed over the target, so
+     * a crash part way through never leaves a half-written scene behind.
+     *
+     * @param shapes
+     * @param file
+     * @throws IOException
+     */
+    public static void write(Iterable<IShape> shapes, Path file) throws IOException {
+        Path target = file.toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (SceneWriter writer = new SceneWriter(new BufferedWriter(
+                    new OutputStreamWriter(Files.newOutputStream(temp), StandardCharsets.US_ASCII), 64 * 1024))) {
+                for (IShape s : shapes) {
+                    writer.writeShape(s);
+                }
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Write one shape as a line of text.
+     *
+     * @param s
+     * @throws IOException
+     */
+    public void writeShape(IShape s) throws IOException {
+        if (s instanceof Square) {
+            Square square = (Square) s;
+            out.write("SQUARE ");
+            writeInt(square.getAnchorPoint().x);
+            out.write(' ');
+            writeInt(square.getAnchorPoint().y);
+            out.write(' ');
+            writeInt(square.getSize());
+            writeColorAndSelected(square);
+            writeRotation(square.getRotation());
+        } else if (s instanceof Rectangle) {
+            Rectangle rect = (Rectangle) s;
+            out.write("RECTANGLE ");
+            writeInt(rect.getAnchorPoint().x);
+            out.write(' ');
+            writeInt(rect.getAnchorPoint().y);
+            out.write(' ');
+            writeInt(rect.getWidth());
+            out.write(' ');
+            writeInt(rect.getHeight());
+            writeColorAndSelected(rect);
+            writeRotation(rect.getRotation());
+        } else if (s instanceof Circle) {
+            // the anchor of a circle is its center
+            Circle circle = (Circle) s;
+            out.write("CIRCLE ");
+            writeInt(circle.getAnchorPoint().x - circle.getDiameter() / 2);
+            out.write(' ');
+            writeInt(circle.getAnchorPoint().y - circle.getDiameter() / 2);
+            out.write(' ');
+            writeInt(circle.getDiameter());
+            writeColorAndSelected(circle);
+        } else {
+            throw new UnsupportedOperationException("Cannot save " + s);
+        }
+        out.write('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeColorAndSelected(IShape s) throws IOException {
+        out.write(' ');
+        out.write(Util.colorToString(s.getColor()));
+        out.write(s.isSelected() ? " true" : " false");
+    }
+
+    private void writeRotation(double rotation) throws IOException {
+        // thousandths of a degree is plenty, and keeps rounding noise
+        // like 1.0E-14 out of the file
+        long thousandths = Math.round(rotation * 1000);
+        if (thousandths == 0 || thousandths == 360000) {
+            return;
+        }
+        out.write(' ');
+        writeLong(thousandths / 1000);
+        out.write('.');
+        long fraction = thousandths % 1000;
+        out.write((char) ('0' + fraction / 100));
+        out.write((char) ('0' + fraction / 10 % 10));
+        out.write((char) ('0' + fraction % 10));
+    }
+
+    private void writeInt(int value) throws IOException {
+        writeLong(value);
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value < 0) {
+            out.write('-');
+            value = -value;
+        }
+        int i = digits.length;
+        do {
+            digits[--i] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        out.write(digits, i, digits.length - i);
+    }
+}
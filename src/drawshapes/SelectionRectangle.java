@@ -8,4 +8,14 @@ public class SelectionRectangle extends Rectangle
         super(left, right, top, bottom);
         setColor(new Color(1,1,1,0.5f));
     }
+
+    /**
+     * Move and resize this rectangle in place, as the mouse is dragged.
+     */
+    public void setBounds(int left, int right, int top, int bottom) {
+        this.anchorPoint.setLocation(left, top);
+        this.width = right - left;
+        this.height = bottom - top;
+        updateBoundingBox();
+    }
 }
@@ -0,0 +1,366 @@
+package drawshapes;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Uniform grid over the bounding boxes of the shapes in a scene.
+ *
+ * Every shape is stored in each grid cell its bounding box overlaps, so a
+ * point query only has to look at one cell and an area query only at the
+ * cells under the area, instead of walking every shape in the scene.
+ * Shapes over more than MAX_CELLS cells are kept in a separate oversize
+ * list instead, which every query checks, so one huge shape doesn't cost
+ * thousands of cell updates each time it is added, moved or removed.
+ *
+ * Cells are kept in an open-addressing table keyed by a primitive long,
+ * so looking one up doesn't box the key. A cell is taken out of the table
+ * as soon as its last shape leaves, so shapes being dragged around don't
+ * leave a trail of empty cells behind, and the table shrinks again once
+ * it is mostly empty. A few emptied buckets are kept to be reused.
+ */
+class SpatialIndex {
+
+    static final int CELL_SIZE = 64;
+    // the most cells a shape is filed under before it goes in the oversize list
+    static final int MAX_CELLS = 16;
+    private static final int MIN_CAPACITY = 64;
+    private static final int MAX_SPARE_BUCKETS = 64;
+
+    private long[] keys = new long[64];
+    private List<IShape>[] buckets = newBuckets(64);
+    private int cellCount;
+    // how many shapes the cells hold between them
+    private long entryCount;
+    private final List<IShape> oversize = new ArrayList<IShape>();
+    private final List<List<IShape>> spareBuckets = new ArrayList<List<IShape>>();
+    // the cell range each shape is currently filed under: minX, maxX, minY, maxY
+    private final Map<IShape, int[]> extents = new IdentityHashMap<>();
+
+    void insert(IShape shape) {
+        BoundingBox b = shape.getBoundingBox();
+        int[] range = { cell(b.getLeft()), cell(b.getRight()), cell(b.getTop()), cell(b.getBottom()) };
+        extents.put(shape, range);
+        addToCells(shape, range);
+    }
+
+    void remove(IShape shape) {
+        int[] range = extents.remove(shape);
+        if (range != null) {
+            removeFromCells(shape, range);
+        }
+    }
+
+    /**
+     * Re-file the shape after its bounding box changed. Only touches the
+     * grid when the shape actually moved into a different set of cells, and
+     * never for a shape that was and still is in the oversize list.
+     */
+    void update(IShape shape) {
+        int[] oldRange = extents.get(shape);
+        if (oldRange == null) {
+            return;
+        }
+        BoundingBox b = shape.getBoundingBox();
+        int minX = cell(b.getLeft());
+        int maxX = cell(b.getRight());
+        int minY = cell(b.getTop());
+        int maxY = cell(b.getBottom());
+        if (minX == oldRange[0] && maxX == oldRange[1] && minY == oldRange[2] && maxY == oldRange[3]) {
+            return;
+        }
+        boolean stillOversize = isOversize(oldRange) && isOversize(minX, maxX, minY, maxY);
+        if (!stillOversize) {
+            removeFromCells(shape, oldRange);
+        }
+        // the range is changed in place, so a drag doesn't allocate
+        oldRange[0] = minX;
+        oldRange[1] = maxX;
+        oldRange[2] = minY;
+        oldRange[3] = maxY;
+        if (!stillOversize) {
+            addToCells(shape, oldRange);
+        }
+    }
+
+    boolean contains(IShape shape) {
+        return extents.containsKey(shape);
+    }
+
+    void clear() {
+        keys = new long[MIN_CAPACITY];
+        buckets = newBuckets(MIN_CAPACITY);
+        cellCount = 0;
+        entryCount = 0;
+        oversize.clear();
+        extents.clear();
+    }
+
+    /**
+     * Add the shapes whose bounding box may contain the given point to the
+     * result.
+     */
+    void query(int x, int y, List<IShape> result) {
+        List<IShape> bucket = find(key(cell(x), cell(y)));
+        if (bucket != null) {
+            addAll(bucket, result);
+        }
+        for (int i = 0; i < oversize.size(); i++) {
+            BoundingBox b = oversize.get(i).getBoundingBox();
+            if (b.getLeft() <= x && x <= b.getRight() && b.getTop() <= y && y <= b.getBottom()) {
+                result.add(oversize.get(i));
+            }
+        }
+    }
+
+    /**
+     * Add the shapes whose bounding box may overlap the given box to the
+     * result, each once. Nothing is allocated, so this can run on every
+     * mouse event of a drag.
+     *
+     * A shape filed under several of the cells is only reported from the
+     * cell holding the top left corner of where its box and the query box
+     * overlap, which is exactly one cell, so no set of seen shapes is
+     * needed. A box over more cells than the table holds walks the table
+     * instead of the cells under the box, so a huge box doesn't look up
+     * the many empty cells it covers one by one.
+     */
+    void query(BoundingBox box, List<IShape> result) {
+        int minX = cell(box.getLeft());
+        int maxX = cell(box.getRight());
+        int minY = cell(box.getTop());
+        int maxY = cell(box.getBottom());
+        if (minX == maxX && minY == maxY) {
+            List<IShape> bucket = find(key(minX, minY));
+            if (bucket != null) {
+                addAll(bucket, result);
+            }
+        } else if (((long) maxX - minX + 1) * ((long) maxY - minY + 1) > cellCount) {
+            for (int i = 0; i < keys.length; i++) {
+                List<IShape> bucket = buckets[i];
+                if (bucket == null) {
+                    continue;
+                }
+                int cx = (int) (keys[i] >> 32);
+                int cy = (int) keys[i];
+                if (cx >= minX && cx <= maxX && cy >= minY && cy <= maxY) {
+                    addFirstSeen(bucket, cx, cy, box, result);
+                }
+            }
+        } else {
+            for (int cx = minX; cx <= maxX; cx++) {
+                for (int cy = minY; cy <= maxY; cy++) {
+                    List<IShape> bucket = find(key(cx, cy));
+                    if (bucket != null) {
+                        addFirstSeen(bucket, cx, cy, box, result);
+                    }
+                }
+            }
+        }
+        // oversize shapes are in no cell, so they can't have been seen yet
+        for (int i = 0; i < oversize.size(); i++) {
+            if (oversize.get(i).getBoundingBox().intersects(box)) {
+                result.add(oversize.get(i));
+            }
+        }
+    }
+
+    // addAll() would copy the bucket into a new array first
+    private static void addAll(List<IShape> bucket, List<IShape> result) {
+        for (int i = 0; i < bucket.size(); i++) {
+            result.add(bucket.get(i));
+        }
+    }
+
+    /**
+     * Add the shapes in the bucket of cell (cx, cy) whose overlap with the
+     * box starts in that cell.
+     */
+    private static void addFirstSeen(List<IShape> bucket, int cx, int cy, BoundingBox box, List<IShape> result) {
+        for (int i = 0; i < bucket.size(); i++) {
+            IShape s = bucket.get(i);
+            BoundingBox b = s.getBoundingBox();
+            if (cell(Math.max(b.getLeft(), box.getLeft())) == cx && cell(Math.max(b.getTop(), box.getTop())) == cy) {
+                result.add(s);
+            }
+        }
+    }
+
+    /**
+     * Guess how many shapes a query for the given box would return,
+     * counting a shape once for every cell it is in, from how full the
+     * cells are on average. Lets callers tell when walking every shape
+     * would be cheaper than a query.
+     */
+    long estimateQuery(BoundingBox box) {
+        if (cellCount == 0) {
+            return oversize.size();
+        }
+        long columns = (long) cell(box.getRight()) - cell(box.getLeft()) + 1;
+        long rows = (long) cell(box.getBottom()) - cell(box.getTop()) + 1;
+        return Math.min(columns * rows, cellCount) * entryCount / cellCount + oversize.size();
+    }
+
+    private static boolean isOversize(int[] range) {
+        return isOversize(range[0], range[1], range[2], range[3]);
+    }
+
+    private static boolean isOversize(int minX, int maxX, int minY, int maxY) {
+        return ((long) maxX - minX + 1) * ((long) maxY - minY + 1) > MAX_CELLS;
+    }
+
+    private void addToCells(IShape shape, int[] range) {
+        if (isOversize(range)) {
+            oversize.add(shape);
+            return;
+        }
+        for (int cx = range[0]; cx <= range[1]; cx++) {
+            for (int cy = range[2]; cy <= range[3]; cy++) {
+                findOrAdd(key(cx, cy)).add(shape);
+                entryCount++;
+            }
+        }
+    }
+
+    private void removeFromCells(IShape shape, int[] range) {
+        if (isOversize(range)) {
+            removeLast(oversize, shape);
+            return;
+        }
+        for (int cx = range[0]; cx <= range[1]; cx++) {
+            for (int cy = range[2]; cy <= range[3]; cy++) {
+                int i = findSlot(key(cx, cy));
+                if (i < 0) {
+                    continue;
+                }
+                if (removeLast(buckets[i], shape)) {
+                    entryCount--;
+                    if (buckets[i].isEmpty()) {
+                        removeSlot(i);
+                    }
+                }
+            }
+        }
+        if (keys.length > MIN_CAPACITY && cellCount * 8 < keys.length) {
+            rehash(keys.length / 2);
+        }
+    }
+
+    /**
+     * Remove the last occurrence of the shape, searching from the end since
+     * recently added shapes are the ones most often moved or removed.
+     */
+    private static boolean removeLast(List<IShape> list, IShape shape) {
+        for (int i = list.size() - 1; i >= 0; i--) {
+            if (list.get(i) == shape) {
+                list.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<IShape> find(long key) {
+        int i = findSlot(key);
+        return i < 0 ? null : buckets[i];
+    }
+
+    private int findSlot(long key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); buckets[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private List<IShape> findOrAdd(long key) {
+        List<IShape> bucket = find(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        if ((cellCount + 1) * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (buckets[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        int spares = spareBuckets.size();
+        buckets[i] = spares > 0 ? spareBuckets.remove(spares - 1) : new ArrayList<IShape>();
+        cellCount++;
+        return buckets[i];
+    }
+
+    /**
+     * Take the cell in the given slot out of the table, moving later cells
+     * of the same probe run back into the gap so that lookups never need
+     * to skip over deleted slots.
+     */
+    private void removeSlot(int i) {
+        if (spareBuckets.size() < MAX_SPARE_BUCKETS) {
+            spareBuckets.add(buckets[i]);
+        }
+        int mask = keys.length - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (buckets[j] == null) {
+                break;
+            }
+            int home = slot(keys[j], mask);
+            // the cell at j can fill the gap unless its probe run starts after the gap
+            boolean startsAfterGap = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!startsAfterGap) {
+                keys[i] = keys[j];
+                buckets[i] = buckets[j];
+                i = j;
+            }
+        }
+        keys[i] = 0;
+        buckets[i] = null;
+        cellCount--;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        List<IShape>[] oldBuckets = buckets;
+        keys = new long[capacity];
+        buckets = newBuckets(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldBuckets[j] != null) {
+                int i = slot(oldKeys[j], mask);
+                while (buckets[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                buckets[i] = oldBuckets[j];
+            }
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+
+    // there is no way to make an array of a generic type without a raw one
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static List<IShape>[] newBuckets(int capacity) {
+        return new List[capacity];
+    }
+
+    private static int cell(int coordinate) {
+        return Math.floorDiv(coordinate, CELL_SIZE);
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+}
@@ -0,0 +1,191 @@
+package drawshapes;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small images of ovals, so that an oval that looks like one drawn before
+ * is copied rather than drawn again. Filling an oval is slow next to
+ * filling a rectangle, and scenes tend to have many circles of the same
+ * size and color.
+ *
+ * A sprite is keyed by the diameter and the color the oval is drawn in,
+ * which is darker when it is selected. Only ovals under MAX_SIZE pixels
+ * across get sprites, since for big ones copying every pixel costs more
+ * than filling them. Rotated rectangles don't get sprites either: filled
+ * under a transform saved once per batch they are cheaper than a copy.
+ * Sprites are only exact while the Graphics object just moves things by
+ * whole pixels, so that is the only time the RenderQueue uses them.
+ *
+ * The cache holds at most a budget of bytes and throws out the least
+ * recently used sprites to stay under it.
+ */
+public class SpriteCache {
+
+    public static final int MAX_SIZE = 48;
+    public static final long DEFAULT_BUDGET_BYTES = 8L * 1024 * 1024;
+
+    // how many times an oval must come up before it gets a sprite
+    private static final int ADMIT_AFTER = 3;
+
+    private final long budgetBytes;
+    private final LinkedHashMap<Key, BufferedImage> sprites = new LinkedHashMap<Key, BufferedImage>(64, 0.75f, true);
+    // reused for lookups, so a hit allocates nothing
+    private final Key probe = new Key();
+    private final byte[] sightings = new byte[4096];
+    private int rejected;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public SpriteCache() {
+        this(DEFAULT_BUDGET_BYTES);
+    }
+
+    public SpriteCache(long budgetBytes) {
+        if (budgetBytes <= 0) {
+            throw new IllegalArgumentException("Budget must be positive: " + budgetBytes);
+        }
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Draw an oval with the given top left corner and diameter from a
+     * sprite.
+     *
+     * A sprite is only made once the same oval has come up a few times, so
+     * ovals that are one of a kind don't pay for an image that is never
+     * used again.
+     *
+     * @return false if the caller has to draw the oval itself
+     */
+    boolean drawOval(Graphics2D g, int x, int y, int diameter, Color color) {
+        if (diameter >= MAX_SIZE || color.getAlpha() != 255) {
+            // a sprite is either painted or clear, with nothing in between
+            return false;
+        }
+        probe.set(diameter, color.getRGB());
+        BufferedImage sprite = sprites.get(probe);
+        if (sprite == null) {
+            misses++;
+            if (!admit(probe.hashCode())) {
+                return false;
+            }
+            sprite = render(g.getDeviceConfiguration(), diameter, color);
+            Key key = new Key();
+            key.set(diameter, probe.rgb);
+            sprites.put(key, sprite);
+            bytes += bytes(sprite);
+            evict();
+        } else {
+            hits++;
+        }
+        g.drawImage(sprite, x, y, null);
+        return true;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Return roughly how much memory the sprites take.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public int size() {
+        return sprites.size();
+    }
+
+    public void clear() {
+        sprites.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Count a sighting of an oval with no sprite, and say whether it has
+     * come up often enough to get one. Sightings are counted per hash slot,
+     * so ovals may share a count, and the counts are forgotten every so
+     * often so that old sightings don't add up forever.
+     */
+    private boolean admit(int hash) {
+        int slot = (hash ^ (hash >>> 16)) & (sightings.length - 1);
+        if (++sightings[slot] >= ADMIT_AFTER) {
+            sightings[slot] = 0;
+            return true;
+        }
+        if (++rejected == sightings.length) {
+            Arrays.fill(sightings, (byte) 0);
+            rejected = 0;
+        }
+        return false;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Key, BufferedImage>> eldest = sprites.entrySet().iterator();
+        while (bytes > budgetBytes && eldest.hasNext()) {
+            bytes -= bytes(eldest.next().getValue());
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private static long bytes(BufferedImage sprite) {
+        return 4L * sprite.getWidth() * sprite.getHeight();
+    }
+
+    private static BufferedImage render(GraphicsConfiguration config, int diameter, Color color) {
+        // fillOval() can paint the pixel at x + diameter
+        BufferedImage image = config.createCompatibleImage(diameter + 1, diameter + 1, Transparency.BITMASK);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(color);
+            g.fillOval(0, 0, diameter, diameter);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    private static class Key {
+        int diameter;
+        int rgb;
+
+        void set(int diameter, int rgb) {
+            this.diameter = diameter;
+            this.rgb = rgb;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return diameter == k.diameter && rgb == k.rgb;
+        }
+
+        @Override
+        public int hashCode() {
+            return diameter * 31 + rgb;
+        }
+    }
+}
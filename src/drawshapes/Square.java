@@ -9,6 +9,15 @@ public class Square extends Rectangle {
         super(new Point(centerX, centerY), length, length, color);
     }
 
+    protected Square(Square other) {
+        super(other);
+    }
+
+    @Override
+    public Square copy() {
+        return new Square(this);
+    }
+
     public String toString() {
         return String.format("SQUARE %d %d %d %s %s",
                 getAnchorPoint().x,
@@ -27,13 +36,4 @@ public class Square extends Rectangle {
         this.height = size;
         updateBoundingBox();
     }
-
-    private void updateBoundingBox() {
-        setBoundingBox(
-                anchorPoint.x,
-                anchorPoint.x + width,
-                anchorPoint.y,
-                anchorPoint.y + height
-        );
-    }
 }
@@ -0,0 +1,177 @@
+package drawshapes;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Renders a scene to an image off-screen, without using the Swing event
+ * thread. Used for thumbnails and exporting.
+ *
+ * The image is split into square tiles. Each shape is filed under the
+ * tiles its bounding box overlaps, and then every tile is drawn in
+ * parallel on a fork/join pool with the shapes' own draw() methods,
+ * straight into its part of the image. The tiles share the image's
+ * pixels and don't overlap, so there is nothing to stitch together and
+ * no memory needed beyond the image itself.
+ *
+ * The shapes are read from worker threads, so they must not change while
+ * they are being rendered. To render a scene that is still being edited,
+ * render a SceneSnapshot of it.
+ */
+public class TiledRenderer {
+
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    private final ForkJoinPool pool;
+    private final int tileSize;
+
+    public TiledRenderer() {
+        this(ForkJoinPool.commonPool(), DEFAULT_TILE_SIZE);
+    }
+
+    public TiledRenderer(ForkJoinPool pool, int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+        }
+        this.pool = pool;
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Render part of the scene.
+     *
+     * @param shapes the shapes to draw, in drawing order, which nothing may
+     * change until this returns
+     * @param x left edge of the area to render, in scene coordinates
+     * @param y top edge of the area to render, in scene coordinates
+     * @param width width of the image, in pixels
+     * @param height height of the image, in pixels
+     * @param scale pixels per scene unit, less than 1 for a thumbnail
+     * @param background color of the empty canvas
+     * @return the rendered image
+     */
+    public BufferedImage render(Iterable<IShape> shapes, int x, int y, int width, int height,
+            double scale, Color background) {
+        if (width <= 0 || height <= 0 || scale <= 0) {
+            throw new IllegalArgumentException(
+                    String.format("Bad render area: %dx%d at scale %f", width, height, scale));
+        }
+        int columns = (width + tileSize - 1) / tileSize;
+        int rows = (height + tileSize - 1) / tileSize;
+
+        // file every shape under the tiles it can touch, keeping drawing order
+        List<List<IShape>> tiles = new ArrayList<>(columns * rows);
+        for (int i = 0; i < columns * rows; i++) {
+            tiles.add(new ArrayList<IShape>());
+        }
+        for (IShape s : shapes) {
+            BoundingBox b = s.getBoundingBox();
+            int firstColumn = Math.max(0, (int) Math.floor((b.getLeft() - x) * scale / tileSize));
+            int lastColumn = Math.min(columns - 1, (int) Math.floor((b.getRight() - x) * scale / tileSize));
+            int firstRow = Math.max(0, (int) Math.floor((b.getTop() - y) * scale / tileSize));
+            int lastRow = Math.min(rows - 1, (int) Math.floor((b.getBottom() - y) * scale / tileSize));
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    tiles.get(row * columns + column).add(s);
+                }
+            }
+        }
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        List<Callable<Void>> work = new ArrayList<>(tiles.size());
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                final int left = column * tileSize;
+                final int top = row * tileSize;
+                final List<IShape> tileShapes = tiles.get(row * columns + column);
+                final BufferedImage tile = image.getSubimage(left, top,
+                        Math.min(tileSize, width - left), Math.min(tileSize, height - top));
+                work.add(new Callable<Void>() {
+                    public Void call() {
+                        renderTile(tileShapes, tile, left, top, x, y, scale, background);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        try {
+            for (Future<Void> rendered : pool.invokeAll(work)) {
+                // only to pass on a tile's failure
+                rendered.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while rendering", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error rendering tile", e.getCause());
+        }
+        return image;
+    }
+
+    /**
+     * Render the whole of a snapshot of a scene at the given scale. The
+     * image covers the bounding boxes of all the shapes.
+     *
+     * @param snapshot
+     * @param scale pixels per scene unit
+     * @param background color of the empty canvas
+     * @return the rendered image, or null if the scene is empty
+     */
+    public BufferedImage render(SceneSnapshot snapshot, double scale, Color background) {
+        BoundingBox bounds = getBounds(snapshot);
+        if (bounds == null) {
+            return null;
+        }
+        int width = (int) Math.ceil((bounds.getRight() - bounds.getLeft() + 1) * scale);
+        int height = (int) Math.ceil((bounds.getBottom() - bounds.getTop() + 1) * scale);
+        return render(snapshot, bounds.getLeft(), bounds.getTop(), Math.max(1, width), Math.max(1, height),
+                scale, background);
+    }
+
+    /**
+     * Return the box around the bounding boxes of all the shapes, or null
+     * if there are none.
+     */
+    public static BoundingBox getBounds(Iterable<IShape> shapes) {
+        BoundingBox bounds = null;
+        for (IShape s : shapes) {
+            if (bounds == null) {
+                bounds = new BoundingBox(s.getBoundingBox());
+            } else {
+                bounds.add(s.getBoundingBox());
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Draw the shapes into a tile, which is the part of the image whose
+     * top left corner is at the given pixel.
+     */
+    private static void renderTile(List<IShape> shapes, BufferedImage tile, int left, int top,
+            int x, int y, double scale, Color background) {
+        Graphics2D g = tile.createGraphics();
+        try {
+            if (background != null) {
+                g.setColor(background);
+                g.fillRect(0, 0, tile.getWidth(), tile.getHeight());
+            }
+            g.translate(-left, -top);
+            g.scale(scale, scale);
+            g.translate(-x, -y);
+            for (IShape s : shapes) {
+                s.draw(g);
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package drawshapes;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Undo and redo stacks of edits.
+ * 
+ * The history only stores the edits themselves, so its memory use grows
+ * with the size of the changes rather than the size of the scene, and
+ * it can be kept thousands of steps deep.
+ */
+public class UndoHistory {
+
+    public static final int DEFAULT_MAX_DEPTH = 2000;
+
+    // sizes used by Edit.estimateBytes(), for a 64-bit JVM
+    static final int OBJECT_BYTES = 16;
+    static final int REFERENCE_BYTES = 8;
+    static final int SHAPE_BYTES = 160;
+
+    private final Deque<Edit> undoStack = new ArrayDeque<>();
+    private final Deque<Edit> redoStack = new ArrayDeque<>();
+    private int maxDepth;
+    // the estimated size of every edit on both stacks
+    private long retainedBytes;
+
+    public UndoHistory() {
+        this(DEFAULT_MAX_DEPTH);
+    }
+
+    public UndoHistory(int maxDepth) {
+        setMaxDepth(maxDepth);
+    }
+
+    /**
+     * Remember an edit that has just been applied. Clears the redo stack,
+     * and drops the oldest edit once the history is full.
+     * 
+     * @param edit
+     */
+    public void record(Edit edit) {
+        undoStack.push(edit);
+        retainedBytes += edit.estimateBytes();
+        for (Edit undone : redoStack) {
+            retainedBytes -= undone.estimateBytes();
+        }
+        redoStack.clear();
+        trim();
+    }
+
+    public boolean undo(Scene scene) {
+        if (undoStack.isEmpty()) {
+            return false;
+        }
+        Edit edit = undoStack.pop();
+        edit.undo(scene);
+        redoStack.push(edit);
+        return true;
+    }
+
+    public boolean redo(Scene scene) {
+        if (redoStack.isEmpty()) {
+            return false;
+        }
+        Edit edit = redoStack.pop();
+        edit.redo(scene);
+        undoStack.push(edit);
+        return true;
+    }
+
+    public boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    public void clear() {
+        undoStack.clear();
+        redoStack.clear();
+        retainedBytes = 0;
+    }
+
+    /**
+     * Return roughly how many bytes of memory the history keeps alive.
+     * 
+     * @return
+     */
+    public long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("History depth must be at least 1: " + maxDepth);
+        }
+        this.maxDepth = maxDepth;
+        trim();
+    }
+
+    private void trim() {
+        while (undoStack.size() > maxDepth) {
+            retainedBytes -= undoStack.removeLast().estimateBytes();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package drawshapes;
+
+import java.awt.Graphics2D;
+import java.awt.Point;
+
+/**
+ * Which part of the scene the panel shows, and how big. A scene point
+ * (x, y) is drawn at screen pixel (x * scale + translateX, y * scale +
+ * translateY).
+ *
+ * Panning moves the view by whole pixels, so the picture the panel
+ * already has can be scrolled instead of drawn again.
+ */
+public class Viewport {
+
+    public static final double MIN_SCALE = 1.0 / 256;
+    public static final double MAX_SCALE = 32;
+
+    private double scale = 1.0;
+    private double translateX;
+    private double translateY;
+
+    public double getScale() {
+        return scale;
+    }
+
+    public double getTranslateX() {
+        return translateX;
+    }
+
+    public double getTranslateY() {
+        return translateY;
+    }
+
+    /**
+     * Move the view by the given number of screen pixels. Moving it right
+     * brings more of the scene on the left into view, like dragging a map.
+     */
+    public void pan(int dx, int dy) {
+        translateX += dx;
+        translateY += dy;
+    }
+
+    /**
+     * Zoom by the given factor, keeping the scene point under the given
+     * screen pixel where it is. The scale stays between MIN_SCALE and
+     * MAX_SCALE.
+     *
+     * @param factor more than 1 to zoom in, less than 1 to zoom out
+     * @param screenX
+     * @param screenY
+     */
+    public void zoom(double factor, int screenX, int screenY) {
+        double newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale * factor));
+        // solve for the translation that puts the same scene point at
+        // the same pixel
+        double worldX = (screenX - translateX) / scale;
+        double worldY = (screenY - translateY) / scale;
+        translateX = screenX - worldX * newScale;
+        translateY = screenY - worldY * newScale;
+        scale = newScale;
+    }
+
+    /**
+     * Go back to showing the scene at its actual size from the origin.
+     */
+    public void reset() {
+        scale = 1.0;
+        translateX = 0;
+        translateY = 0;
+    }
+
+    /**
+     * Return the scene point under the given screen pixel.
+     */
+    public Point toWorld(Point screen) {
+        return new Point((int) Math.floor((screen.x - translateX) / scale),
+                (int) Math.floor((screen.y - translateY) / scale));
+    }
+
+    /**
+     * Return the part of the scene under the given screen rectangle.
+     */
+    BoundingBox toWorld(int x, int y, int width, int height) {
+        return new BoundingBox(
+                (int) Math.floor((x - translateX) / scale),
+                (int) Math.ceil((x + width - translateX) / scale),
+                (int) Math.floor((y - translateY) / scale),
+                (int) Math.ceil((y + height - translateY) / scale));
+    }
+
+    /**
+     * Return the screen rectangle that covers the given box, as x, y,
+     * width and height, with a pixel to spare on every side.
+     */
+    int[] toScreen(BoundingBox box) {
+        // the edges of a box are inclusive, so it ends at right + 1
+        int left = (int) Math.floor(box.getLeft() * scale + translateX) - 1;
+        int top = (int) Math.floor(box.getTop() * scale + translateY) - 1;
+        int right = (int) Math.ceil((box.getRight() + 1) * scale + translateX) + 1;
+        int bottom = (int) Math.ceil((box.getBottom() + 1) * scale + translateY) + 1;
+        return new int[] { left, top, right - left, bottom - top };
+    }
+
+    /**
+     * Set up the Graphics object to draw in scene coordinates.
+     */
+    public void applyTo(Graphics2D g) {
+        g.translate(translateX, translateY);
+        g.scale(scale, scale);
+    }
+
+    /**
+     * Are the two views the same but for a pan of whole pixels?
+     */
+    boolean isPannedFrom(double scale, double translateX, double translateY) {
+        if (this.scale != scale) {
+            return false;
+        }
+        double dx = this.translateX - translateX;
+        double dy = this.translateY - translateY;
+        return dx == Math.rint(dx) && dy == Math.rint(dy);
+    }
+}